@@ -0,0 +1,286 @@
+package blacksmith.classloader;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+import org.objectweb.asm.Opcodes;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Super class, interfaces and access flags of every class frame computation has asked about, read from constant
+ * pool peeks of the class files so computing frames never loads a class through the transforming loader.
+ *
+ * One database is shared by every transformation. When {@code classloader.hierarchyCache} names a file it is
+ * read on first use and rewritten on shutdown if new classes were added. Each entry remembers the jar, runtime
+ * image or class file it was read from, and entries whose source changed since are dropped when the file is read.
+ * Classes are identified by name alone, so two loaders with different classes of the same name share one entry.
+ */
+final class ClassHierarchy {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final Marker CLASSLOADING = MarkerManager.getMarker("CLASSLOADING");
+    private static final int MAGIC = 0x424c4b43;
+    private static final int FORMAT_VERSION = 1;
+    private static final String OBJECT = "java/lang/Object";
+    private static final String RUNTIME_SOURCE = "jrt";
+
+    static final ClassHierarchy INSTANCE = create(System.getProperty("classloader.hierarchyCache"));
+
+    @Nullable
+    private final Path file;
+    private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+    private final Map<String, String> sourceStamps = new ConcurrentHashMap<>();
+    // Every super class and interface of a class, and the class itself, derived from the nodes and never saved
+    private final Map<String, Set<String>> supertypes = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile boolean dirty = false;
+
+    private ClassHierarchy(@Nullable Path file) {
+        this.file = file;
+    }
+
+    private static ClassHierarchy create(@Nullable String file) {
+        if (file == null) return new ClassHierarchy(null);
+        ClassHierarchy hierarchy = new ClassHierarchy(Paths.get(file));
+        hierarchy.load();
+        Runtime.getRuntime().addShutdownHook(new Thread(hierarchy::save, "Class hierarchy cache writer"));
+        return hierarchy;
+    }
+
+    /**
+     * Finds the closest common super class the way {@link org.objectweb.asm.ClassWriter#getCommonSuperClass}
+     * does, without loading either class.
+     *
+     * @param loader The loader whose resources hold class files missing from the database
+     */
+    String getCommonSuperClass(String type1, String type2, ClassLoader loader) {
+        if (isAssignableFrom(type1, type2, loader)) return type1;
+        if (isAssignableFrom(type2, type1, loader)) return type2;
+        if (isInterface(type1, loader) || isInterface(type2, loader)) return OBJECT;
+        for (String current = get(type1, loader).superName; current != null; current = get(current, loader).superName) {
+            if (isAssignableFrom(current, type2, loader)) return current;
+        }
+        return OBJECT;
+    }
+
+    boolean isInterface(String type, ClassLoader loader) {
+        return (get(type, loader).access & Opcodes.ACC_INTERFACE) != 0;
+    }
+
+    /**
+     * @return true if {@code type} is {@code other}, or one of its super classes or interfaces
+     */
+    boolean isAssignableFrom(String type, String other, ClassLoader loader) {
+        return type.equals(other) || type.equals(OBJECT) || supertypesOf(other, loader).contains(type);
+    }
+
+    private Set<String> supertypesOf(String type, ClassLoader loader) {
+        Set<String> known = supertypes.get(type);
+        if (known != null) return known;
+        // Not computeIfAbsent, filling in the super types recursively would modify the map from inside it
+        Node node = get(type, loader);
+        Set<String> all = new HashSet<>();
+        all.add(type);
+        if (node.superName != null) all.addAll(supertypesOf(node.superName, loader));
+        for (String iface : node.interfaces) {
+            all.addAll(supertypesOf(iface, loader));
+        }
+        Set<String> raced = supertypes.putIfAbsent(type, all);
+        return raced != null ? raced : all;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    private Node get(String type, ClassLoader loader) {
+        Node node = nodes.get(type);
+        if (node != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+            node = read(type, loader);
+            Node raced = nodes.putIfAbsent(type, node);
+            if (raced != null) return raced;
+            dirty = true;
+        }
+        return node;
+    }
+
+    private Node read(String type, ClassLoader loader) {
+        URL url = loader.getResource(type + ".class");
+        if (url == null) throw new TypeNotPresentException(type.replace('/', '.'), null);
+        ClassPeek peek;
+        try (InputStream in = url.openStream()) {
+            peek = ClassPeek.of(readFully(in));
+        } catch (IOException e) {
+            throw new TypeNotPresentException(type.replace('/', '.'), e);
+        }
+        if (peek == null) throw new TypeNotPresentException(type.replace('/', '.'), null);
+        String source = sourceOf(url);
+        if (source != null) sourceStamps.computeIfAbsent(source, ClassHierarchy::stampOf);
+        return new Node(peek.getAccess(), peek.getSuperName(), peek.getInterfaces(), source);
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return The jar, runtime image or class file the class was read from, or null if changes to it cannot be detected
+     */
+    @Nullable
+    private static String sourceOf(URL url) {
+        try {
+            switch (url.getProtocol()) {
+                case "jrt":
+                    return RUNTIME_SOURCE;
+                case "jar":
+                    URL jar = ((JarURLConnection) url.openConnection()).getJarFileURL();
+                    return "file".equals(jar.getProtocol()) ? Paths.get(jar.toURI()).toString() : null;
+                case "file":
+                    return Paths.get(url.toURI()).toString();
+                default:
+                    return null;
+            }
+        } catch (IOException | URISyntaxException e) {
+            return null;
+        }
+    }
+
+    private static String stampOf(String source) {
+        if (source.equals(RUNTIME_SOURCE)) return System.getProperty("java.runtime.version", "");
+        try {
+            Path path = Paths.get(source);
+            return Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    private void load() {
+        if (file == null || !Files.isRegularFile(file)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                LOGGER.debug(CLASSLOADING, "Ignoring class hierarchy cache {} written by a different version", file);
+                return;
+            }
+            String[] sources = new String[in.readInt()];
+            boolean[] current = new boolean[sources.length];
+            for (int x = 0; x < sources.length; x++) {
+                sources[x] = in.readUTF();
+                String stamp = in.readUTF();
+                current[x] = stamp.equals(stampOf(sources[x]));
+                if (current[x]) sourceStamps.put(sources[x], stamp);
+            }
+            int count = in.readInt();
+            int dropped = 0;
+            for (int x = 0; x < count; x++) {
+                String name = in.readUTF();
+                int access = in.readUnsignedShort();
+                String superName = in.readUTF();
+                String[] interfaces = new String[in.readUnsignedShort()];
+                for (int y = 0; y < interfaces.length; y++) {
+                    interfaces[y] = in.readUTF();
+                }
+                int source = in.readInt();
+                if (current[source]) {
+                    nodes.put(name, new Node(access, superName.isEmpty() ? null : superName, interfaces, sources[source]));
+                } else {
+                    dropped++;
+                }
+            }
+            // Rewrite the file without the stale entries
+            if (dropped > 0) dirty = true;
+            LOGGER.debug(CLASSLOADING, "Loaded {} classes from hierarchy cache {}, {} stale", count - dropped, file, dropped);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn(CLASSLOADING, "Failed to read class hierarchy cache {}, it will be rebuilt", file, e);
+            nodes.clear();
+            sourceStamps.clear();
+        }
+    }
+
+    private void save() {
+        if (file == null || !dirty) return;
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Path temp = Files.createTempFile(dir, "hierarchy", ".tmp");
+            List<String> sources = new ArrayList<>(sourceStamps.keySet());
+            Map<String, Integer> sourceIndexes = new HashMap<>();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(sources.size());
+                for (int x = 0; x < sources.size(); x++) {
+                    out.writeUTF(sources.get(x));
+                    out.writeUTF(sourceStamps.get(sources.get(x)));
+                    sourceIndexes.put(sources.get(x), x);
+                }
+                List<Map.Entry<String, Node>> persistent = new ArrayList<>();
+                for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+                    if (entry.getValue().source != null) persistent.add(entry);
+                }
+                out.writeInt(persistent.size());
+                for (Map.Entry<String, Node> entry : persistent) {
+                    Node node = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeShort(node.access);
+                    out.writeUTF(node.superName == null ? "" : node.superName);
+                    out.writeShort(node.interfaces.length);
+                    for (String iface : node.interfaces) {
+                        out.writeUTF(iface);
+                    }
+                    out.writeInt(sourceIndexes.get(node.source));
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn(CLASSLOADING, "Failed to write class hierarchy cache {}", file, e);
+        }
+    }
+
+    private static final class Node {
+        final int access;
+        @Nullable
+        final String superName;
+        final String[] interfaces;
+        @Nullable
+        final String source;
+
+        Node(int access, @Nullable String superName, String[] interfaces, @Nullable String source) {
+            this.access = access;
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.source = source;
+        }
+    }
+}
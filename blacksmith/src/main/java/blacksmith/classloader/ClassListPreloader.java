@@ -0,0 +1,134 @@
+package blacksmith.classloader;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+
+import javax.annotation.Nullable;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the classes a {@link TransformingClassLoader} is asked for during a run, and on the next run loads them
+ * ahead of time on worker threads so the classes are already transformed and defined when they are needed.
+ *
+ * Enabled by pointing {@code classloader.classList} at a file, which is rewritten on shutdown. Classes are recorded
+ * in the order they were first requested by threads other than the preloader's, so classes loaded speculatively but
+ * never used drop out of the list. Workers take classes in recorded order. Defining a class makes the JVM load its
+ * super class first through the same loader, which takes the super class's lock, so workers racing on one hierarchy
+ * wait for each other instead of defining out of order.
+ */
+final class ClassListPreloader {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final Marker CLASSLOADING = MarkerManager.getMarker("CLASSLOADING");
+
+    private final Path file;
+    private final List<String> previous;
+    private final Queue<String> recorded = new ConcurrentLinkedQueue<>();
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private ClassListPreloader(Path file, List<String> previous) {
+        this.file = file;
+        this.previous = previous;
+    }
+
+    @Nullable
+    static ClassListPreloader create(@Nullable String file) {
+        if (file == null) return null;
+        Path path = Paths.get(file);
+        List<String> previous = Collections.emptyList();
+        if (Files.isRegularFile(path)) {
+            try {
+                previous = Files.readAllLines(path, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                LOGGER.warn(CLASSLOADING, "Failed to read class list {}, classes will not be preloaded", path, e);
+            }
+        }
+        ClassListPreloader preloader = new ClassListPreloader(path, previous);
+        Runtime.getRuntime().addShutdownHook(new Thread(preloader::save, "Class list writer"));
+        return preloader;
+    }
+
+    /**
+     * Records a class defined by or found in the loader, ignored when called from a preloader thread.
+     */
+    void record(String className) {
+        if (Thread.currentThread() instanceof PreloadThread) return;
+        if (seen.add(className)) recorded.add(className);
+    }
+
+    /**
+     * Starts loading the classes recorded in the previous run, does nothing if preloading was already started.
+     */
+    void start(TransformingClassLoader loader) {
+        if (previous.isEmpty() || !started.compareAndSet(false, true)) return;
+        int threads = Math.max(1, Math.min(previous.size() / 64, Runtime.getRuntime().availableProcessors() - 1));
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(threads);
+        final long begin = System.nanoTime();
+        LOGGER.debug(CLASSLOADING, "Preloading {} classes on {} threads", previous.size(), threads);
+        for (int x = 0; x < threads; x++) {
+            new PreloadThread(x, () -> {
+                int index;
+                while ((index = next.getAndIncrement()) < previous.size()) {
+                    String name = previous.get(index);
+                    try {
+                        Class.forName(name, false, loader);
+                    } catch (ClassNotFoundException | LinkageError e) {
+                        LOGGER.trace(CLASSLOADING, "Failed to preload {}", name, e);
+                    } catch (RuntimeException e) {
+                        // Thrown by a transformer, frame computation or verification, the class is just left to load on demand
+                        LOGGER.debug(CLASSLOADING, "Failed to transform preloaded class {}", name, e);
+                    }
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    LOGGER.debug(CLASSLOADING, "Preloaded {} classes in {}ms", previous.size(), (System.nanoTime() - begin) / 1_000_000);
+                }
+            }).start();
+        }
+    }
+
+    private void save() {
+        List<String> classes = new ArrayList<>(recorded);
+        // A run that loaded nothing, e.g. one that failed early, keeps the previous list
+        if (classes.isEmpty() || classes.equals(previous)) return;
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Path temp = Files.createTempFile(dir, "classes", ".tmp");
+            try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (String name : classes) {
+                    out.write(name);
+                    out.newLine();
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn(CLASSLOADING, "Failed to write class list {}", file, e);
+        }
+    }
+
+    private static final class PreloadThread extends Thread {
+        PreloadThread(int id, Runnable task) {
+            super(task, "Class preloader " + id);
+            setDaemon(true);
+            setPriority(Thread.NORM_PRIORITY - 1);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package blacksmith.classloader;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for a class loaded by a {@link TransformingClassLoader}, see {@link ClassLoadingTelemetry}.
+ * Phase times exclude classes loaded while the phase ran.
+ */
+@Name("blacksmith.ClassLoad")
+@Label("Transforming Class Load")
+@Category({"Blacksmith", "Class Loading"})
+@Description("A class looked up, transformed and defined by a TransformingClassLoader")
+final class ClassLoadEvent extends jdk.jfr.Event {
+    @Label("Class Name")
+    String className;
+
+    @Label("Class Bytes")
+    @DataAmount
+    int bytes;
+
+    @Label("Lookup Time")
+    @Timespan
+    long lookup;
+
+    @Label("Transform Time")
+    @Timespan
+    long transform;
+
+    @Label("Define Time")
+    @Timespan
+    long define;
+
+    @Label("Transform Cache Hit")
+    boolean cached;
+}
@@ -0,0 +1,272 @@
+package blacksmith.classloader;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records where class loading time goes inside a {@link TransformingClassLoader}: looking up the class bytes,
+ * each transformer, and defining the class.
+ *
+ * Enabled with {@code classloader.telemetry=true}, {@link TransformingClassLoader#getTelemetry()} then returns the
+ * recorder. Setting {@code classloader.telemetryReport} to a file writes the JSON report there on shutdown.
+ * Each class is also emitted as a {@code blacksmith.ClassLoad} flight recorder event when a recording enables it.
+ *
+ * Samples are stored in preallocated arrays, classes past {@code classloader.telemetrySamples} (default 65536)
+ * only count towards the totals. Phase times are self times, a class loaded while another is being defined or
+ * transformed, such as its super class, is subtracted from the outer class's phase.
+ */
+public final class ClassLoadingTelemetry {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final Marker CLASSLOADING = MarkerManager.getMarker("CLASSLOADING");
+    private static final ThreadLocal<Sample> CURRENT = new ThreadLocal<>();
+
+    private final int capacity;
+    private final String[] names;
+    private final long[] lookup;
+    private final long[] transform;
+    private final long[] define;
+    private final int[] bytes;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final LongAdder classes = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder lookupNanos = new LongAdder();
+    private final LongAdder transformNanos = new LongAdder();
+    private final LongAdder defineNanos = new LongAdder();
+    private final LongAdder transformCacheHits = new LongAdder();
+    private final LongAdder transformCacheMisses = new LongAdder();
+    private final Map<String, TransformerStats> transformers = new ConcurrentHashMap<>();
+    private final Map<String, CacheStats> caches = new ConcurrentHashMap<>();
+
+    ClassLoadingTelemetry(int capacity) {
+        this.capacity = capacity;
+        this.names = new String[capacity];
+        this.lookup = new long[capacity];
+        this.transform = new long[capacity];
+        this.define = new long[capacity];
+        this.bytes = new int[capacity];
+    }
+
+    @Nullable
+    static ClassLoadingTelemetry create() {
+        if (!Boolean.getBoolean("classloader.telemetry")) return null;
+        ClassLoadingTelemetry telemetry = new ClassLoadingTelemetry(Integer.getInteger("classloader.telemetrySamples", 1 << 16));
+        String report = System.getProperty("classloader.telemetryReport");
+        if (report != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    telemetry.writeJson(Paths.get(report), 50);
+                } catch (IOException e) {
+                    LOGGER.warn(CLASSLOADING, "Failed to write class loading report {}", report, e);
+                }
+            }, "Class loading report writer"));
+        }
+        return telemetry;
+    }
+
+    Sample begin(String className) {
+        Sample sample = new Sample(className, CURRENT.get());
+        CURRENT.set(sample);
+        return sample;
+    }
+
+    /**
+     * Ends the sample, recording it if the class was defined.
+     */
+    void end(Sample sample) {
+        CURRENT.set(sample.parent);
+        if (sample.parent != null) sample.parent.nested += System.nanoTime() - sample.start;
+        if (!sample.defined) return;
+
+        classes.increment();
+        bytesRead.add(sample.bytes);
+        lookupNanos.add(sample.lookup);
+        transformNanos.add(sample.transform);
+        defineNanos.add(sample.define);
+        int index = next.getAndIncrement();
+        if (index < capacity) {
+            names[index] = sample.className;
+            lookup[index] = sample.lookup;
+            transform[index] = sample.transform;
+            define[index] = sample.define;
+            bytes[index] = sample.bytes;
+        }
+
+        ClassLoadEvent event = new ClassLoadEvent();
+        if (event.isEnabled()) {
+            event.className = sample.className;
+            event.bytes = sample.bytes;
+            event.lookup = sample.lookup;
+            event.transform = sample.transform;
+            event.define = sample.define;
+            event.cached = sample.cached;
+            event.commit();
+        }
+    }
+
+    void recordTransformer(String name, long nanos, boolean changed) {
+        TransformerStats stats = transformers.computeIfAbsent(name, n -> new TransformerStats());
+        stats.calls.increment();
+        stats.nanos.add(nanos);
+        if (changed) stats.changed.increment();
+    }
+
+    void recordTransformCache(boolean hit) {
+        (hit ? transformCacheHits : transformCacheMisses).increment();
+    }
+
+    void recordCache(String cache, boolean hit) {
+        CacheStats stats = caches.computeIfAbsent(cache, n -> new CacheStats());
+        (hit ? stats.hits : stats.misses).increment();
+    }
+
+    /**
+     * @param topN The number of slowest classes and transformers to include
+     * @return The report as a JSON object
+     */
+    public String toJson(int topN) {
+        StringBuilder json = new StringBuilder(4096);
+        json.append("{\n  \"classes\": ").append(classes.sum())
+                .append(",\n  \"bytesRead\": ").append(bytesRead.sum())
+                .append(",\n  \"lookupMillis\": ").append(millis(lookupNanos.sum()))
+                .append(",\n  \"transformMillis\": ").append(millis(transformNanos.sum()))
+                .append(",\n  \"defineMillis\": ").append(millis(defineNanos.sum()))
+                .append(",\n  \"caches\": {");
+        Map<String, long[]> hitRates = new TreeMap<>();
+        hitRates.put("transform", new long[] { transformCacheHits.sum(), transformCacheMisses.sum() });
+        hitRates.put("hierarchy", new long[] { ClassHierarchy.INSTANCE.getHits(), ClassHierarchy.INSTANCE.getMisses() });
+        caches.forEach((name, stats) -> hitRates.put(name, new long[] { stats.hits.sum(), stats.misses.sum() }));
+        String separator = "\n    ";
+        for (Map.Entry<String, long[]> cache : hitRates.entrySet()) {
+            long hits = cache.getValue()[0], misses = cache.getValue()[1];
+            json.append(separator).append(quote(cache.getKey())).append(": {\"hits\": ").append(hits).append(", \"misses\": ").append(misses)
+                    .append(", \"hitRate\": ").append(hits + misses == 0 ? "0" : String.format(Locale.ROOT, "%.3f", hits / (double) (hits + misses))).append('}');
+            separator = ",\n    ";
+        }
+
+        json.append("\n  },\n  \"slowestClasses\": [");
+        separator = "\n    ";
+        for (int index : slowestClasses(topN)) {
+            json.append(separator).append("{\"name\": ").append(quote(names[index]))
+                    .append(", \"totalMicros\": ").append(micros(lookup[index] + transform[index] + define[index]))
+                    .append(", \"lookupMicros\": ").append(micros(lookup[index]))
+                    .append(", \"transformMicros\": ").append(micros(transform[index]))
+                    .append(", \"defineMicros\": ").append(micros(define[index]))
+                    .append(", \"bytes\": ").append(bytes[index]).append('}');
+            separator = ",\n    ";
+        }
+
+        json.append("\n  ],\n  \"transformers\": [");
+        separator = "\n    ";
+        List<Map.Entry<String, TransformerStats>> byTime = new ArrayList<>(transformers.entrySet());
+        byTime.sort(Comparator.comparingLong((Map.Entry<String, TransformerStats> e) -> e.getValue().nanos.sum()).reversed());
+        for (Map.Entry<String, TransformerStats> entry : byTime.subList(0, Math.min(topN, byTime.size()))) {
+            TransformerStats stats = entry.getValue();
+            json.append(separator).append("{\"name\": ").append(quote(entry.getKey()))
+                    .append(", \"calls\": ").append(stats.calls.sum())
+                    .append(", \"changed\": ").append(stats.changed.sum())
+                    .append(", \"totalMicros\": ").append(micros(stats.nanos.sum())).append('}');
+            separator = ",\n    ";
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+
+    public void writeJson(Path file, int topN) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write(toJson(topN));
+        }
+    }
+
+    private int[] slowestClasses(int topN) {
+        int count = Math.min(next.get(), capacity);
+        Integer[] indexes = new Integer[count];
+        for (int x = 0; x < count; x++) {
+            indexes[x] = x;
+        }
+        Arrays.sort(indexes, Comparator.comparingLong((Integer x) -> lookup[x] + transform[x] + define[x]).reversed());
+        return Arrays.stream(indexes, 0, Math.min(topN, count)).mapToInt(Integer::intValue).toArray();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static long micros(long nanos) {
+        return nanos / 1000;
+    }
+
+    private static String quote(@Nullable String value) {
+        if (value == null) return "null";
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int x = 0; x < value.length(); x++) {
+            char c = value.charAt(x);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Timings of one class being loaded, owned by the loading thread.
+     */
+    static final class Sample {
+        final String className;
+        @Nullable
+        final Sample parent;
+        final long start = System.nanoTime();
+        // Time spent in classes loaded while this one was loading
+        long nested;
+        long lookup, transform, define;
+        int bytes;
+        boolean cached;
+        boolean defined;
+        private long phaseStart, phaseNested;
+
+        private Sample(String className, @Nullable Sample parent) {
+            this.className = className;
+            this.parent = parent;
+        }
+
+        void startPhase() {
+            phaseStart = System.nanoTime();
+            phaseNested = nested;
+        }
+
+        /**
+         * @return The time since {@link #startPhase()}, less the time spent loading other classes
+         */
+        long endPhase() {
+            return System.nanoTime() - phaseStart - (nested - phaseNested);
+        }
+    }
+
+    private static final class TransformerStats {
+        final LongAdder calls = new LongAdder();
+        final LongAdder changed = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+    }
+
+    private static final class CacheStats {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+    }
+}
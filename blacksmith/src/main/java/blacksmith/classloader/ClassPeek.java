@@ -0,0 +1,128 @@
+package blacksmith.classloader;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the constant pool and header of a class file without parsing anything else, so annotation and
+ * superclass targets can be matched before deciding whether a class needs to be handed to ASM at all, and
+ * {@link ClassHierarchy} can learn the class's place in the hierarchy without loading it.
+ */
+final class ClassPeek {
+    private final byte[] bytes;
+    // Offset of the length of every Utf8 entry in the pool, in pool order
+    private final int[] utf8Offsets;
+    private final int utf8Count;
+    private final int[] entryOffsets;
+    private final int headerOffset;
+
+    private ClassPeek(byte[] bytes) {
+        this.bytes = bytes;
+        int count = readUnsignedShort(8);
+        this.entryOffsets = new int[count];
+        this.utf8Offsets = new int[count];
+        int utf8 = 0;
+        int offset = 10;
+        for (int x = 1; x < count; x++) {
+            entryOffsets[x] = offset + 1;
+            switch (bytes[offset]) {
+                case 1: // Utf8
+                    utf8Offsets[utf8++] = offset + 1;
+                    offset += 3 + readUnsignedShort(offset + 1);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    offset += 9;
+                    x++;
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    offset += 5;
+                    break;
+                case 15: // MethodHandle
+                    offset += 4;
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    offset += 3;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown constant pool tag " + bytes[offset]);
+            }
+        }
+        this.utf8Count = utf8;
+        this.headerOffset = offset;
+    }
+
+    /**
+     * @return The peeked class, or null if the bytes are not a readable class file
+     */
+    @Nullable
+    static ClassPeek of(byte[] classBytes) {
+        try {
+            return new ClassPeek(classBytes);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param utf8 The encoded string to look for
+     * @return true if the constant pool holds the string
+     */
+    boolean containsUtf8(byte[] utf8) {
+        outer:
+        for (int x = 0; x < utf8Count; x++) {
+            int offset = utf8Offsets[x];
+            if (readUnsignedShort(offset) != utf8.length) continue;
+            offset += 2;
+            for (int y = 0; y < utf8.length; y++) {
+                if (bytes[offset + y] != utf8[y]) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    int getAccess() {
+        return readUnsignedShort(headerOffset);
+    }
+
+    /**
+     * @return The internal name of the super class, or null for {@code java/lang/Object} and module-info
+     */
+    @Nullable
+    String getSuperName() {
+        int classIndex = readUnsignedShort(headerOffset + 4);
+        return classIndex == 0 ? null : readClassName(classIndex);
+    }
+
+    /**
+     * @return The internal names of the directly implemented interfaces
+     */
+    String[] getInterfaces() {
+        String[] interfaces = new String[readUnsignedShort(headerOffset + 6)];
+        for (int x = 0; x < interfaces.length; x++) {
+            interfaces[x] = readClassName(readUnsignedShort(headerOffset + 8 + x * 2));
+        }
+        return interfaces;
+    }
+
+    private String readClassName(int classIndex) {
+        int utf8Offset = entryOffsets[readUnsignedShort(entryOffsets[classIndex])];
+        return new String(bytes, utf8Offset + 2, readUnsignedShort(utf8Offset), StandardCharsets.UTF_8);
+    }
+
+    private int readUnsignedShort(int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+}
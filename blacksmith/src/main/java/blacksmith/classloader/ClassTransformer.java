@@ -0,0 +1,116 @@
+package blacksmith.classloader;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the registered {@link IClassTransformer}s over class bytes for a {@link TransformingClassLoader}.
+ *
+ * Transformers are selected through a {@link TransformerIndex} built from their declared targets, classes no
+ * transformer targets are returned untouched without being parsed. Otherwise the class is parsed once, handed
+ * to each interested transformer, and written once with frames only recomputed when a transformer changed
+ * method code.
+ *
+ * When {@code classloader.transformCache} is set the result is cached on disk, see {@link TransformCache}.
+ */
+public class ClassTransformer {
+    private final TransformingClassLoader transformingClassLoader;
+    private volatile TransformerIndex index = TransformerIndex.EMPTY;
+
+    ClassTransformer(TransformingClassLoader transformingClassLoader) {
+        this.transformingClassLoader = transformingClassLoader;
+    }
+
+    synchronized void addTransformer(IClassTransformer transformer) {
+        index = index.with(transformer);
+    }
+
+    public byte[] transform(byte[] inputClass, String className, String reason) {
+        return transform(inputClass, className, reason, null);
+    }
+
+    byte[] transform(byte[] inputClass, String className, String reason, @Nullable ClassLoadingTelemetry.Sample sample) {
+        if (inputClass.length == 0) return inputClass;
+
+        List<IClassTransformer> interested = index.select(className, inputClass);
+        if (interested.isEmpty()) return inputClass;
+
+        TransformCache cache = reason.equals(ITransformerActivity.CLASSLOADING_REASON) ? TransformCache.INSTANCE : null;
+        if (cache == null) return runTransformers(inputClass, className, reason, interested, null);
+        byte[] key = TransformCache.keyOf(className, inputClass, interested);
+        byte[] cached = cache.get(key, inputClass, transformingClassLoader);
+        ClassLoadingTelemetry telemetry = transformingClassLoader.getTelemetry();
+        if (telemetry != null) telemetry.recordTransformCache(cached != null);
+        if (cached != null) {
+            if (sample != null) sample.cached = true;
+            return cached;
+        }
+        List<String> superClassQueries = new ArrayList<>();
+        byte[] transformed = runTransformers(inputClass, className, reason, interested, superClassQueries);
+        cache.put(key, inputClass, transformed, superClassQueries);
+        return transformed;
+    }
+
+    /**
+     * @param superClassQueries If not null, receives the type, type and answer of every common super class
+     * lookup made computing frames
+     */
+    private byte[] runTransformers(byte[] inputClass, String className, String reason, List<IClassTransformer> interested, @Nullable List<String> superClassQueries) {
+        ClassReader reader = new ClassReader(inputClass);
+        ClassNode node = new ClassNode();
+        reader.accept(node, 0);
+
+        IClassTransformer.Result changes = IClassTransformer.Result.UNCHANGED;
+        ClassLoadingTelemetry telemetry = transformingClassLoader.getTelemetry();
+        for (IClassTransformer transformer : interested) {
+            long start = telemetry == null ? 0 : System.nanoTime();
+            IClassTransformer.Result result = transformer.transform(node, reason);
+            if (telemetry != null) telemetry.recordTransformer(transformer.name(), System.nanoTime() - start, result != IClassTransformer.Result.UNCHANGED);
+            if (result.compareTo(changes) > 0) changes = result;
+        }
+
+        switch (changes) {
+            case UNCHANGED:
+                return inputClass;
+            case STRUCTURE: {
+                ClassWriter writer = new ClassWriter(reader, 0);
+                node.accept(writer);
+                return writer.toByteArray();
+            }
+            default: {
+                ClassWriter writer = new HierarchyClassWriter(reader, superClassQueries);
+                node.accept(writer);
+                return writer.toByteArray();
+            }
+        }
+    }
+
+    /**
+     * Computes frames without loading classes, common super classes are found in the shared {@link ClassHierarchy}.
+     */
+    private class HierarchyClassWriter extends ClassWriter {
+        @Nullable
+        private final List<String> queries;
+
+        HierarchyClassWriter(ClassReader reader, @Nullable List<String> queries) {
+            super(reader, ClassWriter.COMPUTE_FRAMES);
+            this.queries = queries;
+        }
+
+        @Override
+        protected String getCommonSuperClass(String type1, String type2) {
+            String common = ClassHierarchy.INSTANCE.getCommonSuperClass(type1, type2, transformingClassLoader);
+            if (queries != null) {
+                queries.add(type1);
+                queries.add(type2);
+                queries.add(common);
+            }
+            return common;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package blacksmith.classloader;
+
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A transformer registered on a {@link TransformingClassLoader}.
+ *
+ * Each class is parsed into a single {@link ClassNode} which is passed through every interested transformer
+ * in registration order, then written once.
+ */
+public interface IClassTransformer {
+    /**
+     * @return A stable name identifying this transformer
+     */
+    String name();
+
+    /**
+     * Transformed classes are cached across launches when {@code classloader.transformCache} is set. Change the
+     * version whenever the transformer's output changes so classes it transformed before are transformed again.
+     *
+     * @return The version of this transformer
+     */
+    default String version() {
+        return "1";
+    }
+
+    /**
+     * Declares which classes this transformer is interested in. Queried once when the transformer is registered,
+     * classes matching none of the targets of any transformer are defined without being parsed.
+     *
+     * @return The classes this transformer wants to transform
+     */
+    Set<Target> targets();
+
+    /**
+     * Transforms the class in place.
+     *
+     * @param node The class being loaded, possibly already modified by earlier transformers
+     * @param reason The reason the class bytes are requested, see {@link ITransformerActivity}
+     * @return What the transformer changed, so the loader knows how the class has to be written
+     */
+    Result transform(ClassNode node, String reason);
+
+    enum Result {
+        /** Nothing was modified */
+        UNCHANGED,
+        /** Only class structure such as fields, annotations or access flags changed, no method code */
+        STRUCTURE,
+        /** Method instructions were added or modified, stack map frames have to be recomputed */
+        CODE
+    }
+
+    /**
+     * A set of classes a transformer applies to.
+     *
+     * Name and package targets are looked up by hash. Annotation and superclass targets are matched against the
+     * class file's constant pool before it is parsed, see {@link #annotatedWith(String)}.
+     */
+    final class Target {
+        enum Kind {
+            CLASS,
+            PACKAGE,
+            PACKAGE_TREE,
+            ANNOTATION,
+            SUPERCLASS
+        }
+
+        final Kind kind;
+        final String value;
+
+        private Target(Kind kind, String value) {
+            this.kind = kind;
+            this.value = value;
+        }
+
+        /**
+         * @param className A binary class name, e.g. {@code com.example.Foo}
+         */
+        public static Target className(String className) {
+            return new Target(Kind.CLASS, className);
+        }
+
+        /**
+         * @param glob A package followed by {@code .*} for the classes directly in it, or by {@code .**} to also
+         *             include its sub packages, e.g. {@code com.example.**}
+         */
+        public static Target packageGlob(String glob) {
+            if (glob.endsWith(".**")) {
+                return new Target(Kind.PACKAGE_TREE, glob.substring(0, glob.length() - 3));
+            } else if (glob.endsWith(".*")) {
+                return new Target(Kind.PACKAGE, glob.substring(0, glob.length() - 2));
+            }
+            throw new IllegalArgumentException("Package glob must end with .* or .**: " + glob);
+        }
+
+        /**
+         * Matches classes whose constant pool references the annotation type. This includes every class annotated
+         * with it, but also classes that only use it on a member or refer to it otherwise, the transformer should
+         * return {@link Result#UNCHANGED} for those.
+         *
+         * @param annotationClass The binary name of the annotation type
+         */
+        public static Target annotatedWith(String annotationClass) {
+            return new Target(Kind.ANNOTATION, 'L' + annotationClass.replace('.', '/') + ';');
+        }
+
+        /**
+         * Matches classes directly extending the given class.
+         *
+         * @param superClass The binary name of the super class
+         */
+        public static Target extending(String superClass) {
+            return new Target(Kind.SUPERCLASS, superClass.replace('.', '/'));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Target)) return false;
+            Target target = (Target) o;
+            return kind == target.kind && value.equals(target.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, value);
+        }
+
+        @Override
+        public String toString() {
+            return kind + ":" + value;
+        }
+    }
+}
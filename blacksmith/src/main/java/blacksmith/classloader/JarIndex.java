@@ -0,0 +1,236 @@
+package blacksmith.classloader;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Index of a jar's central directory, read once from a memory mapped copy of the jar so looking up a class is a
+ * single hash probe and reading it needs no {@link java.net.URLConnection}.
+ *
+ * Jars that cannot be indexed, such as zip64 archives or jars with an entry whose size or offset needs a zip64
+ * extra field, are left to the {@link java.net.URLClassLoader}. So are multi-release jars, whose entries under
+ * {@code META-INF/versions/} would otherwise be ignored in favour of the base ones. Entries are copied or inflated straight from the
+ * mapping, without an intermediate buffer.
+ */
+final class JarIndex {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final Marker CLASSLOADING = MarkerManager.getMarker("CLASSLOADING");
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int END_SIZE = 22;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final Queue<Inflater> INFLATERS = new ConcurrentLinkedQueue<>();
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final URL jarUrl;
+    private final MappedByteBuffer mapped;
+    private final Map<String, Entry> entries;
+    @Nullable
+    private final Manifest manifest;
+
+    private JarIndex(URL jarUrl, MappedByteBuffer mapped, Map<String, Entry> entries) throws IOException {
+        this.jarUrl = jarUrl;
+        this.mapped = mapped;
+        this.entries = entries;
+        byte[] manifestBytes = read(JarFile.MANIFEST_NAME);
+        this.manifest = manifestBytes == null ? null : new Manifest(new ByteArrayInputStream(manifestBytes));
+    }
+
+    /**
+     * @return The index of the jar, or null if the path is not a jar that can be indexed
+     */
+    @Nullable
+    static JarIndex open(Path path) {
+        if (!Files.isRegularFile(path)) return null;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            Map<String, Entry> entries = readCentralDirectory(mapped);
+            if (entries == null) {
+                LOGGER.debug(CLASSLOADING, "Not indexing {}, it is not a plain zip archive", path);
+                return null;
+            }
+            JarIndex index = new JarIndex(path.toUri().toURL(), mapped, entries);
+            if (index.isMultiRelease()) {
+                LOGGER.debug(CLASSLOADING, "Not indexing {}, it is a multi-release jar", path);
+                return null;
+            }
+            return index;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug(CLASSLOADING, "Failed to index {}", path, e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static Map<String, Entry> readCentralDirectory(MappedByteBuffer mapped) {
+        int end = -1;
+        for (int x = mapped.limit() - END_SIZE; x >= Math.max(0, mapped.limit() - END_SIZE - 0xFFFF); x--) {
+            if (mapped.getInt(x) == END_SIGNATURE) {
+                end = x;
+                break;
+            }
+        }
+        if (end < 0) return null;
+        int count = mapped.getShort(end + 10) & 0xFFFF;
+        long directoryOffset = mapped.getInt(end + 16) & 0xFFFFFFFFL;
+        // zip64 archives mark these fields as overflowed
+        if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL) return null;
+
+        Map<String, Entry> entries = new HashMap<>(count * 2);
+        int offset = (int) directoryOffset;
+        for (int x = 0; x < count; x++) {
+            if (mapped.getInt(offset) != CENTRAL_SIGNATURE) return null;
+            int method = mapped.getShort(offset + 10) & 0xFFFF;
+            int compressedSize = mapped.getInt(offset + 20);
+            int size = mapped.getInt(offset + 24);
+            int nameLength = mapped.getShort(offset + 28) & 0xFFFF;
+            int extraLength = mapped.getShort(offset + 30) & 0xFFFF;
+            int commentLength = mapped.getShort(offset + 32) & 0xFFFF;
+            int localHeader = mapped.getInt(offset + 42);
+            // 0xFFFFFFFF defers to a zip64 extra field, and anything past 2GB cannot be mapped anyway
+            if (compressedSize < 0 || size < 0 || localHeader < 0) return null;
+            byte[] name = new byte[nameLength];
+            ByteBuffer nameBytes = mapped.duplicate();
+            nameBytes.position(offset + 46);
+            nameBytes.get(name);
+            entries.put(new String(name, StandardCharsets.UTF_8), new Entry(localHeader, method, compressedSize, size));
+            offset += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    URL getJarUrl() {
+        return jarUrl;
+    }
+
+    @Nullable
+    Manifest getManifest() {
+        return manifest;
+    }
+
+    private boolean isMultiRelease() {
+        return manifest != null && "true".equalsIgnoreCase(String.valueOf(manifest.getMainAttributes().getValue(Attributes.Name.MULTI_RELEASE)).trim());
+    }
+
+    boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    Set<String> getNames() {
+        return entries.keySet();
+    }
+
+    /**
+     * @return The URL the {@link java.net.URLClassLoader} would have returned for the entry
+     */
+    URL getEntryUrl(String name) throws MalformedURLException {
+        return new URL("jar:" + jarUrl + "!/" + encodePath(name));
+    }
+
+    /**
+     * Percent-encodes the characters of an entry name that are not allowed in a URL path, as UTF-8.
+     */
+    static String encodePath(String name) {
+        StringBuilder encoded = null;
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        for (int x = 0; x < bytes.length; x++) {
+            int b = bytes[x] & 0xFF;
+            if (isPathChar(b)) {
+                if (encoded != null) encoded.append((char) b);
+            } else {
+                if (encoded == null) encoded = new StringBuilder(bytes.length + 16).append(name, 0, x);
+                encoded.append('%').append(HEX[b >> 4]).append(HEX[b & 0xF]);
+            }
+        }
+        // Until the first encoded character bytes and chars line up, as both are ASCII
+        return encoded == null ? name : encoded.toString();
+    }
+
+    private static boolean isPathChar(int b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || "/-_.!~*'()$&+,;=:@".indexOf(b) >= 0;
+    }
+
+    /**
+     * @param name The entry name, e.g. {@code com/example/Foo.class}
+     * @return The uncompressed entry, or null if the jar has no such entry
+     */
+    @Nullable
+    byte[] read(String name) throws IOException {
+        Entry entry = entries.get(name);
+        if (entry == null) return null;
+        // The local header repeats name and extra field, with an extra field length that can differ from the central one
+        int data = entry.localHeader + 30 + (mapped.getShort(entry.localHeader + 26) & 0xFFFF) + (mapped.getShort(entry.localHeader + 28) & 0xFFFF);
+        byte[] bytes = new byte[entry.size];
+        ByteBuffer input = mapped.duplicate();
+        input.position(data);
+        if (entry.method == STORED) {
+            input.get(bytes);
+            return bytes;
+        } else if (entry.method != DEFLATED) {
+            throw new IOException("Unsupported compression method " + entry.method + " for " + name + " in " + jarUrl);
+        }
+
+        input.limit(data + entry.compressedSize);
+        Inflater inflater = INFLATERS.poll();
+        if (inflater == null) inflater = new Inflater(true);
+        try {
+            inflater.setInput(input);
+            int read = 0;
+            while (read < bytes.length) {
+                int inflated = inflater.inflate(bytes, read, bytes.length - read);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) break;
+                read += inflated;
+            }
+            if (read != bytes.length) throw new IOException("Truncated entry " + name + " in " + jarUrl);
+            return bytes;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt entry " + name + " in " + jarUrl, e);
+        } finally {
+            inflater.reset();
+            INFLATERS.offer(inflater);
+        }
+    }
+
+    private static final class Entry {
+        final int localHeader;
+        final int method;
+        final int compressedSize;
+        final int size;
+
+        Entry(int localHeader, int method, int compressedSize, int size) {
+            this.localHeader = localHeader;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+        }
+    }
+}
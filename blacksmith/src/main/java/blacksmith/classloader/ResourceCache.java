@@ -0,0 +1,65 @@
+package blacksmith.classloader;
+
+import javax.annotation.Nullable;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Caches the results of a resource finder, including resources it did not find, so repeated probes for optional
+ * classes, {@code package-info} or service files do not go back to the jars.
+ *
+ * Found resources are kept until the cache is invalidated. Misses are kept up to a bound, set with
+ * {@code classloader.negativeResourceCache} (default 4096), after which they are dropped and collected again.
+ */
+final class ResourceCache {
+    private static final Boolean MISSING = Boolean.TRUE;
+
+    private final Function<String, Enumeration<URL>> finder;
+    @Nullable
+    private final ClassLoadingTelemetry telemetry;
+    private final int maxMisses = Integer.getInteger("classloader.negativeResourceCache", 4096);
+    // Replaced on invalidation, lookups that raced with one store their stale result in the discarded instance
+    private volatile Entries entries = new Entries();
+
+    ResourceCache(Function<String, Enumeration<URL>> finder, @Nullable ClassLoadingTelemetry telemetry) {
+        this.finder = finder;
+        this.telemetry = telemetry;
+    }
+
+    Enumeration<URL> find(String name) {
+        // Taken before asking the finder, so the result is stored where an invalidation since will have dropped it
+        final Entries current = entries;
+        List<URL> urls = current.found.get(name);
+        if (urls != null || current.missing.containsKey(name)) {
+            if (telemetry != null) telemetry.recordCache("resource", true);
+            return urls == null ? Collections.emptyEnumeration() : Collections.enumeration(urls);
+        }
+        if (telemetry != null) telemetry.recordCache("resource", false);
+
+        urls = Collections.unmodifiableList(Collections.list(finder.apply(name)));
+        if (!urls.isEmpty()) {
+            current.found.put(name, urls);
+        } else {
+            if (current.missing.size() >= maxMisses) current.missing.clear();
+            current.missing.put(name, MISSING);
+        }
+        return Collections.enumeration(urls);
+    }
+
+    /**
+     * Drops every cached result, for when the resources the finder can see have changed.
+     */
+    void invalidate() {
+        entries = new Entries();
+    }
+
+    private static final class Entries {
+        final Map<String, List<URL>> found = new ConcurrentHashMap<>();
+        final Map<String, Boolean> missing = new ConcurrentHashMap<>();
+    }
+}
@@ -1,23 +1,199 @@
 package blacksmith.classloader;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+
 import javax.annotation.Nullable;
-import java.lang.reflect.Method;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.security.CodeSigner;
 import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.*;
 import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
-import sun.security.util.ManifestEntryVerifier;
 
+/**
+ * Creates the {@link CodeSource} of classes loaded from jars, with the signers that signed each class.
+ *
+ * Every jar is inspected once. Unsigned jars share one code source without signers for all their classes. Signed
+ * jars are opened as a verifying {@link JarFile}, which checks each entry against the signed digests while it is
+ * read, and entries with the same signers share one code source. When a signed jar is first used its classes are
+ * queued for verification on a worker pool, up to the pool's bounded queue. A class that was not queued, or is
+ * requested before its turn, is verified by the loading thread. The bytes being defined must have the SHA-256 of
+ * the verified entry.
+ */
 public class SecureJarHandler {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final Marker CLASSLOADING = MarkerManager.getMarker("CLASSLOADING");
 
-    private static final Class<?> JVCLASS = LamdbaExceptionUtils.uncheck(() -> Class.forName("java.util.jar.JarVerifier"));
-    private static final Method BEGIN_ENTRY = LamdbaExceptionUtils.uncheck(() -> JVCLASS.getMethod("beginEntry", JarEntry.class, ManifestEntryVerifier.class));
-    private static final Method UPDATE = LamdbaExceptionUtils.uncheck(() -> JVCLASS.getMethod("update", int.class, byte[].class, int.class, ManifestEntryVerifier.class))
-
+    private static final Map<String, SignedJar> SIGNED_JARS = new ConcurrentHashMap<>();
+    private static final Map<String, CodeSource> UNSIGNED_SOURCES = new ConcurrentHashMap<>();
+    private static final int VERIFIER_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final ExecutorService VERIFIERS = new ThreadPoolExecutor(VERIFIER_THREADS, VERIFIER_THREADS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1024), task -> {
+        Thread thread = new Thread(task, "Jar signature verifier");
+        thread.setDaemon(true);
+        return thread;
+    });
 
+    /**
+     * @param path The entry name of the class, e.g. {@code com/example/Foo.class}
+     * @param url The URL the class was read from
+     * @param classBytes The untransformed class bytes
+     * @param jarManifest The manifest of the jar the class was read from
+     * @return The code source of the class, or null if it was not read from a jar
+     * @throws SecurityException If the class bytes do not match the signed jar entry
+     */
+    @Nullable
     public static CodeSource createCodeSource(final String path, @Nullable final URL url, final byte[] classBytes, @Nullable final Manifest jarManifest) {
-        if(JV == null) return null;
-        if(manifest == null) return null;
-        if(url == null) return null;
+        if (url == null || !"jar".equals(url.getProtocol())) return null;
+        String spec = url.toString();
+        int separator = spec.indexOf("!/");
+        if (separator < 0) return null;
+        String jarSpec = spec.substring(4, separator);
+
+        // Signed jars list a digest for every entry in the manifest, jars without entry sections cannot be signed
+        if (jarManifest == null || jarManifest.getEntries().isEmpty()) return unsignedSource(jarSpec);
+        SignedJar jar = SIGNED_JARS.computeIfAbsent(jarSpec, SignedJar::open);
+        if (jar.file == null) return unsignedSource(jarSpec);
+        return jar.getCodeSource(path, classBytes);
+    }
+
+    private static CodeSource unsignedSource(String jarSpec) {
+        return UNSIGNED_SOURCES.computeIfAbsent(jarSpec, spec -> new CodeSource(toUrl(spec), (CodeSigner[]) null));
+    }
+
+    private static URL toUrl(String spec) {
+        try {
+            return new URL(spec);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(spec, e);
+        }
+    }
+
+    private static final class SignedJar {
+        private final URL url;
+        // null if the jar has no signature files
+        @Nullable
+        private final JarFile file;
+        private final Map<String, FutureTask<Verified>> entries = new ConcurrentHashMap<>();
+        private final Map<List<CodeSigner>, CodeSource> sources = new ConcurrentHashMap<>();
+
+        private SignedJar(URL url, @Nullable JarFile file) {
+            this.url = url;
+            this.file = file;
+        }
+
+        static SignedJar open(String jarSpec) {
+            URL url = toUrl(jarSpec);
+            try {
+                JarFile file = new JarFile(new File(url.toURI()), true);
+                boolean signed = file.stream().anyMatch(entry -> isSignatureFile(entry.getName()));
+                if (!signed) {
+                    file.close();
+                    return new SignedJar(url, null);
+                }
+                SignedJar jar = new SignedJar(url, file);
+                jar.verifyInBackground();
+                return jar;
+            } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+                LOGGER.warn(CLASSLOADING, "Failed to open {} to check its signatures, treating it as unsigned", url, e);
+                return new SignedJar(url, null);
+            }
+        }
+
+        private static boolean isSignatureFile(String name) {
+            return name.startsWith("META-INF/") && name.indexOf('/', 9) < 0 && name.toUpperCase(Locale.ROOT).endsWith(".SF");
+        }
+
+        private void verifyInBackground() {
+            int queued = 0;
+            for (JarEntry entry : Collections.list(file.entries())) {
+                if (!entry.getName().endsWith(".class")) continue;
+                try {
+                    VERIFIERS.execute(task(entry.getName()));
+                    queued++;
+                } catch (RejectedExecutionException e) {
+                    // The queue is full, the remaining classes are verified as they are loaded
+                    break;
+                }
+            }
+            LOGGER.debug(CLASSLOADING, "Queued {} classes of {} for verification", queued, url);
+        }
+
+        private FutureTask<Verified> task(String name) {
+            return entries.computeIfAbsent(name, n -> new FutureTask<>(() -> verify(n)));
+        }
+
+        CodeSource getCodeSource(String path, byte[] classBytes) {
+            FutureTask<Verified> task = task(path);
+            // Runs the verification here unless a worker or another thread loading the same class already started it
+            task.run();
+            Verified verified;
+            try {
+                verified = task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SecurityException("Interrupted verifying " + path + " in " + url, e);
+            } catch (ExecutionException e) {
+                throw new SecurityException("Failed to verify " + path + " in " + url, e.getCause());
+            }
+            if (!MessageDigest.isEqual(sha256().digest(classBytes), verified.digest)) {
+                throw new SecurityException("Class bytes of " + path + " do not match the verified entry in " + url);
+            }
+            return verified.source;
+        }
+
+        /**
+         * Reads the entry through the verifying jar file, which throws if its digest does not match the signed one.
+         */
+        private Verified verify(String name) throws IOException {
+            JarEntry entry = file.getJarEntry(name);
+            if (entry == null) throw new IOException("No entry " + name);
+            byte[] buffer = new byte[8192];
+            MessageDigest digest = sha256();
+            try (InputStream in = file.getInputStream(entry)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            CodeSigner[] signers = entry.getCodeSigners();
+            CodeSource source = sources.computeIfAbsent(signers == null ? Collections.emptyList() : Arrays.asList(signers),
+                    list -> new CodeSource(url, list.isEmpty() ? null : list.toArray(new CodeSigner[0])));
+            return new Verified(source, digest.digest());
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static final class Verified {
+        final CodeSource source;
+        final byte[] digest;
+
+        Verified(CodeSource source, byte[] digest) {
+            this.source = source;
+            this.digest = digest;
+        }
     }
 }
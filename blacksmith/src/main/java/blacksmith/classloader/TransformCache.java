@@ -0,0 +1,344 @@
+package blacksmith.classloader;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * On disk cache of transformed class bytes, so classes transformed on a previous launch are defined without
+ * running ASM again.
+ *
+ * Enabled by pointing {@code classloader.transformCache} at a directory. Entries are keyed by a hash of the class
+ * name, its original bytes and the name and {@link IClassTransformer#version() version} of every transformer
+ * targeting it, so changing the class or bumping a transformer's version makes its old entries miss. Frames
+ * computed for a class depend on the hierarchy of the classes it uses, so each entry also records the common super
+ * class answers its frames were computed from, and misses if {@link ClassHierarchy} now answers differently.
+ *
+ * The key index is a memory mapped open addressing hash table in {@code classes.idx}, the bytes are appended to
+ * {@code classes.dat}. Each record holds its length, a CRC32 and its key, so an index slot left pointing at
+ * unwritten or foreign data after a crash is read as a miss and replaced. Entries that can no longer be hit are not
+ * removed, delete the directory to reclaim the space. Only one process can use a cache directory at a time, others
+ * run without the cache.
+ */
+final class TransformCache {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final Marker CLASSLOADING = MarkerManager.getMarker("CLASSLOADING");
+    private static final int MAGIC = 0x424c4b54;
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER = 16;
+    private static final int KEY_SIZE = 32;
+    // key, long data offset, int length, int used flag
+    private static final int SLOT = KEY_SIZE + 16;
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    // Stored instead of a length for classes the transformers left unchanged
+    private static final int UNCHANGED = -1;
+    // int body length, int CRC32 of the body
+    private static final int RECORD_HEADER = 8;
+
+    @Nullable
+    static final TransformCache INSTANCE = create(System.getProperty("classloader.transformCache"));
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(
+            LamdbaExceptionUtils.rethrowSupplier(() -> MessageDigest.getInstance("SHA-256")));
+
+    private final Path indexFile;
+    private final FileChannel indexChannel;
+    private final FileChannel dataChannel;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private MappedByteBuffer index;
+    private int capacity;
+    private int count;
+
+    private TransformCache(Path indexFile, FileChannel indexChannel, FileChannel dataChannel) throws IOException {
+        this.indexFile = indexFile;
+        this.indexChannel = indexChannel;
+        this.dataChannel = dataChannel;
+        if (indexChannel.size() >= HEADER) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            while (header.hasRemaining() && indexChannel.read(header, header.position()) >= 0) {
+                // read the whole header
+            }
+            int tableCapacity = header.getInt(8);
+            if (header.getInt(0) == MAGIC && header.getInt(4) == FORMAT_VERSION && tableCapacity >= INITIAL_CAPACITY
+                    && Integer.bitCount(tableCapacity) == 1 && indexChannel.size() >= HEADER + (long) tableCapacity * SLOT) {
+                map(indexChannel, tableCapacity);
+                count = index.getInt(12);
+                return;
+            }
+            LOGGER.debug(CLASSLOADING, "Discarding transform cache {} written by a different version", indexFile);
+        }
+        // The data file is never mapped, the index is cleared in place instead of truncated
+        dataChannel.truncate(0);
+        map(indexChannel, INITIAL_CAPACITY);
+        clear(INITIAL_CAPACITY);
+    }
+
+    @Nullable
+    private static TransformCache create(@Nullable String directory) {
+        if (directory == null) return null;
+        return open(Paths.get(directory));
+    }
+
+    /**
+     * @return The cache in the directory, or null if it could not be opened or another process is using it
+     */
+    @Nullable
+    static TransformCache open(Path dir) {
+        try {
+            Files.createDirectories(dir);
+            Path indexFile = dir.resolve("classes.idx");
+            FileChannel indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock fileLock = indexChannel.tryLock();
+            if (fileLock == null) {
+                LOGGER.info(CLASSLOADING, "Transform cache {} is in use by another process, running without it", dir);
+                indexChannel.close();
+                return null;
+            }
+            FileChannel dataChannel = FileChannel.open(dir.resolve("classes.dat"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new TransformCache(indexFile, indexChannel, dataChannel);
+        } catch (IOException e) {
+            LOGGER.warn(CLASSLOADING, "Failed to open transform cache {}, running without it", dir, e);
+            return null;
+        }
+    }
+
+    /**
+     * @param className The binary name of the class
+     * @param classBytes The untransformed class file
+     * @param transformers The transformers targeting the class, in the order they run
+     * @return The cache key for the class
+     */
+    static byte[] keyOf(String className, byte[] classBytes, List<IClassTransformer> transformers) {
+        MessageDigest digest = DIGEST.get();
+        digest.update(className.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(classBytes);
+        for (IClassTransformer transformer : transformers) {
+            digest.update((byte) 0);
+            digest.update(transformer.name().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(transformer.version().getBytes(StandardCharsets.UTF_8));
+        }
+        return digest.digest();
+    }
+
+    /**
+     * @param key A key from {@link #keyOf(String, byte[], List)}
+     * @param classBytes The untransformed class file, returned when the cached transform left it unchanged
+     * @param loader The loader whose classes the cached frames were computed against
+     * @return The transformed class bytes, or null if the class is not cached, the entry is damaged or its
+     * frames were computed from a hierarchy that has changed since
+     */
+    @Nullable
+    byte[] get(byte[] key, byte[] classBytes, ClassLoader loader) {
+        long offset;
+        int length;
+        lock.readLock().lock();
+        try {
+            int slot = find(key);
+            if (index.getInt(slot + KEY_SIZE + 12) == 0) return null;
+            offset = index.getLong(slot + KEY_SIZE);
+            length = index.getInt(slot + KEY_SIZE + 8);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (length == UNCHANGED) return classBytes;
+        if (length < RECORD_HEADER + KEY_SIZE) return null;
+        byte[] record = new byte[length];
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(record);
+            while (buffer.hasRemaining()) {
+                if (dataChannel.read(buffer, offset + buffer.position()) < 0) break;
+            }
+            if (buffer.hasRemaining()) {
+                LOGGER.debug(CLASSLOADING, "Transform cache entry at {} is truncated, ignoring it", offset);
+                return null;
+            }
+        } catch (IOException e) {
+            LOGGER.debug(CLASSLOADING, "Failed to read cached class bytes", e);
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.wrap(record);
+        CRC32 crc = new CRC32();
+        crc.update(record, RECORD_HEADER, length - RECORD_HEADER);
+        if (header.getInt(0) != length - RECORD_HEADER || header.getInt(4) != (int) crc.getValue()
+                || !Arrays.equals(record, RECORD_HEADER, RECORD_HEADER + KEY_SIZE, key, 0, KEY_SIZE)) {
+            LOGGER.debug(CLASSLOADING, "Transform cache entry at {} is damaged, ignoring it", offset);
+            return null;
+        }
+        int body = RECORD_HEADER + KEY_SIZE;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, body, length - body))) {
+            int queries = in.readInt();
+            for (int x = 0; x < queries; x++) {
+                String type1 = in.readUTF();
+                String type2 = in.readUTF();
+                if (!in.readUTF().equals(ClassHierarchy.INSTANCE.getCommonSuperClass(type1, type2, loader))) return null;
+            }
+            byte[] bytes = new byte[in.available()];
+            in.readFully(bytes);
+            return bytes;
+        } catch (IOException | RuntimeException e) {
+            // A class the frames were computed against is gone, or the record is malformed
+            LOGGER.debug(CLASSLOADING, "Transform cache entry at {} is out of date, ignoring it", offset, e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the transformed class, replacing any entry already stored for the key.
+     *
+     * @param transformed The transformed class bytes, or the untransformed array if the transformers left it unchanged
+     * @param superClassQueries The type, type and answer of every {@link ClassHierarchy#getCommonSuperClass} call
+     * made while computing frames for the transformed bytes
+     */
+    void put(byte[] key, byte[] classBytes, byte[] transformed, List<String> superClassQueries) {
+        byte[] record = transformed == classBytes ? null : encode(key, transformed, superClassQueries);
+        lock.writeLock().lock();
+        try {
+            int slot = find(key);
+            boolean added = index.getInt(slot + KEY_SIZE + 12) == 0;
+            long offset = dataChannel.size();
+            int length = UNCHANGED;
+            if (record != null) {
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                while (buffer.hasRemaining()) {
+                    dataChannel.write(buffer, offset + buffer.position());
+                }
+                length = record.length;
+            }
+            for (int x = 0; x < KEY_SIZE; x++) {
+                index.put(slot + x, key[x]);
+            }
+            index.putLong(slot + KEY_SIZE, offset);
+            index.putInt(slot + KEY_SIZE + 8, length);
+            index.putInt(slot + KEY_SIZE + 12, 1);
+            if (added) {
+                index.putInt(12, ++count);
+                if (count * 2 > capacity) grow();
+            }
+        } catch (IOException e) {
+            LOGGER.debug(CLASSLOADING, "Failed to write transform cache entry", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static byte[] encode(byte[] key, byte[] transformed, List<String> superClassQueries) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_HEADER + KEY_SIZE + transformed.length + 64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(0);
+            out.write(key, 0, KEY_SIZE);
+            out.writeInt(superClassQueries.size() / 3);
+            for (String type : superClassQueries) {
+                out.writeUTF(type);
+            }
+            out.write(transformed);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] record = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(record, RECORD_HEADER, record.length - RECORD_HEADER);
+        ByteBuffer.wrap(record).putInt(0, record.length - RECORD_HEADER).putInt(4, (int) crc.getValue());
+        return record;
+    }
+
+    /**
+     * Releases the cache directory, for tests reopening it in the same process.
+     */
+    void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            index.force();
+            indexChannel.close();
+            dataChannel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The offset of the slot holding the key, or of the empty slot it would be stored in
+     */
+    private int find(byte[] key) {
+        int hash = ((key[0] & 0xFF) << 24) | ((key[1] & 0xFF) << 16) | ((key[2] & 0xFF) << 8) | (key[3] & 0xFF);
+        for (int probe = hash & (capacity - 1); ; probe = (probe + 1) & (capacity - 1)) {
+            int slot = HEADER + probe * SLOT;
+            if (index.getInt(slot + KEY_SIZE + 12) == 0 || keyEquals(slot, key)) return slot;
+        }
+    }
+
+    private boolean keyEquals(int slot, byte[] key) {
+        for (int x = 0; x < KEY_SIZE; x++) {
+            if (index.get(slot + x) != key[x]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Doubles the table in place. The file is only ever extended, never truncated while it is mapped, which some
+     * platforms refuse.
+     */
+    private void grow() throws IOException {
+        int oldCapacity = capacity;
+        ByteBuffer old = ByteBuffer.allocate(HEADER + oldCapacity * SLOT);
+        ByteBuffer table = index.duplicate();
+        table.clear();
+        old.put(table);
+        int entries = count;
+        map(indexChannel, oldCapacity * 2);
+        clear(capacity);
+        byte[] key = new byte[KEY_SIZE];
+        for (int x = 0; x < oldCapacity; x++) {
+            int from = HEADER + x * SLOT;
+            if (old.getInt(from + KEY_SIZE + 12) == 0) continue;
+            old.position(from);
+            old.get(key);
+            int to = find(key);
+            for (int y = 0; y < SLOT; y++) {
+                index.put(to + y, old.get(from + y));
+            }
+        }
+        count = entries;
+        index.putInt(12, count);
+    }
+
+    private void clear(int capacity) {
+        byte[] zeros = new byte[SLOT * 64];
+        ByteBuffer table = index.duplicate();
+        table.clear();
+        while (table.hasRemaining()) {
+            table.put(zeros, 0, Math.min(zeros.length, table.remaining()));
+        }
+        index.putInt(0, MAGIC).putInt(4, FORMAT_VERSION).putInt(8, capacity).putInt(12, 0);
+        count = 0;
+    }
+
+    private void map(FileChannel channel, int capacity) throws IOException {
+        this.capacity = capacity;
+        this.index = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) capacity * SLOT);
+    }
+}
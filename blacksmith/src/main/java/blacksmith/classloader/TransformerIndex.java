@@ -0,0 +1,119 @@
+package blacksmith.classloader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Immutable lookup from a class to the transformers targeting it, built from the {@link IClassTransformer.Target}s
+ * of every registered transformer.
+ *
+ * Class and package targets are resolved with hash lookups on the class name. The constant pool is only peeked
+ * when some transformer declared an annotation or superclass target.
+ */
+final class TransformerIndex {
+    static final TransformerIndex EMPTY = new TransformerIndex(Collections.emptyList());
+
+    private final List<IClassTransformer> transformers;
+    private final Map<String, int[]> byClass;
+    private final Map<String, int[]> byPackage;
+    private final Map<String, int[]> byPackageTree;
+    private final Map<String, int[]> bySuperClass;
+    private final byte[][] annotations;
+    private final int[][] byAnnotation;
+
+    private TransformerIndex(List<IClassTransformer> transformers) {
+        this.transformers = transformers;
+        Map<String, List<Integer>> byClass = new HashMap<>();
+        Map<String, List<Integer>> byPackage = new HashMap<>();
+        Map<String, List<Integer>> byPackageTree = new HashMap<>();
+        Map<String, List<Integer>> bySuperClass = new HashMap<>();
+        Map<String, List<Integer>> byAnnotation = new LinkedHashMap<>();
+        for (int x = 0; x < transformers.size(); x++) {
+            for (IClassTransformer.Target target : transformers.get(x).targets()) {
+                Map<String, List<Integer>> map;
+                switch (target.kind) {
+                    case CLASS: map = byClass; break;
+                    case PACKAGE: map = byPackage; break;
+                    case PACKAGE_TREE: map = byPackageTree; break;
+                    case SUPERCLASS: map = bySuperClass; break;
+                    default: map = byAnnotation; break;
+                }
+                List<Integer> indexes = map.computeIfAbsent(target.value, k -> new ArrayList<>());
+                if (!indexes.contains(x)) indexes.add(x);
+            }
+        }
+        this.byClass = toArrays(byClass);
+        this.byPackage = toArrays(byPackage);
+        this.byPackageTree = toArrays(byPackageTree);
+        this.bySuperClass = toArrays(bySuperClass);
+        this.annotations = byAnnotation.keySet().stream().map(s -> s.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+        this.byAnnotation = byAnnotation.values().stream().map(TransformerIndex::toArray).toArray(int[][]::new);
+    }
+
+    TransformerIndex with(IClassTransformer transformer) {
+        List<IClassTransformer> all = new ArrayList<>(transformers);
+        all.add(transformer);
+        return new TransformerIndex(Collections.unmodifiableList(all));
+    }
+
+    List<IClassTransformer> getTransformers() {
+        return transformers;
+    }
+
+    /**
+     * @param className The binary name of the class
+     * @param classBytes The untransformed class file, only read if a transformer declared a predicate target
+     * @return The transformers targeting the class in registration order, empty if the class can be defined as is
+     */
+    List<IClassTransformer> select(String className, byte[] classBytes) {
+        if (transformers.isEmpty()) return Collections.emptyList();
+        BitSet matched = new BitSet(transformers.size());
+        mark(matched, byClass.get(className));
+
+        int dot = className.lastIndexOf('.');
+        String pkg = dot > 0 ? className.substring(0, dot) : "";
+        mark(matched, byPackage.get(pkg));
+        if (!byPackageTree.isEmpty()) {
+            for (int end = pkg.length(); end > 0; end = pkg.lastIndexOf('.', end - 1)) {
+                mark(matched, byPackageTree.get(pkg.substring(0, end)));
+            }
+        }
+
+        if (annotations.length > 0 || !bySuperClass.isEmpty()) {
+            ClassPeek peek = ClassPeek.of(classBytes);
+            if (peek != null) {
+                for (int x = 0; x < annotations.length; x++) {
+                    if (peek.containsUtf8(annotations[x])) mark(matched, byAnnotation[x]);
+                }
+                if (!bySuperClass.isEmpty()) {
+                    String superName = peek.getSuperName();
+                    if (superName != null) mark(matched, bySuperClass.get(superName));
+                }
+            }
+        }
+
+        if (matched.isEmpty()) return Collections.emptyList();
+        List<IClassTransformer> selected = new ArrayList<>(matched.cardinality());
+        for (int x = matched.nextSetBit(0); x >= 0; x = matched.nextSetBit(x + 1)) {
+            selected.add(transformers.get(x));
+        }
+        return selected;
+    }
+
+    private static void mark(BitSet matched, int[] indexes) {
+        if (indexes == null) return;
+        for (int index : indexes) {
+            matched.set(index);
+        }
+    }
+
+    private static Map<String, int[]> toArrays(Map<String, List<Integer>> map) {
+        Map<String, int[]> arrays = new HashMap<>(map.size() * 2);
+        map.forEach((key, indexes) -> arrays.put(key, toArray(indexes)));
+        return arrays;
+    }
+
+    private static int[] toArray(List<Integer> indexes) {
+        return indexes.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -9,18 +9,21 @@ import org.apache.logging.log4j.MarkerManager;
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.JarURLConnection;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.URLConnection;
 import java.nio.file.Path;
 import java.security.CodeSource;
+import java.security.ProtectionDomain;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
-import static blacksmith.eventbus.LamdbaExceptionUtils.rethrowFunction;
+import static blacksmith.classloader.LamdbaExceptionUtils.rethrowFunction;
 
 public class TransformingClassLoader extends ClassLoader {
     private static final Logger LOGGER = LogManager.getLogger();
@@ -40,13 +43,72 @@ public class TransformingClassLoader extends ClassLoader {
     private final Predicate<String> targetPackageFilter;
     private DelegatedClassLoader delegatedClassLoader;
     private Function<String, Enumeration<URL>> resourceFinder;
-    private final URL[] specialJars;
+    private final ResourceCache resourceCache;
+    private final Function<URLConnection, Manifest> manifestFinder;
+    private volatile URL[] specialJars;
+    private final Object jarLock = new Object();
+    private volatile JarIndex[] jarIndexes;
+    // The jars containing each entry, null unless every jar could be indexed so lookups never need the URLClassLoader
+    @Nullable
+    private volatile Map<String, JarIndex[]> nameIndex;
+    @Nullable
+    private final ClassListPreloader classList;
+    @Nullable
+    private final ClassLoadingTelemetry telemetry;
 
     public TransformingClassLoader(Path... paths) {
         this.classTransformer = new ClassTransformer(this);
         this.specialJars = Arrays.stream(paths).map(rethrowFunction(path -> path.toUri().toURL())).toArray(URL[]::new);
+        this.jarIndexes = Arrays.stream(paths).map(JarIndex::open).toArray(JarIndex[]::new);
+        this.nameIndex = indexNames(jarIndexes);
         this.delegatedClassLoader = new DelegatedClassLoader(this);
         this.targetPackageFilter = s -> SKIP_PACKAGE_PREFIXES.stream().noneMatch(s::startsWith);
+        this.manifestFinder = rethrowFunction(connection -> connection instanceof JarURLConnection ? ((JarURLConnection) connection).getManifest() : null);
+        this.classList = ClassListPreloader.create(System.getProperty("classloader.classList"));
+        this.telemetry = ClassLoadingTelemetry.create();
+        this.resourceCache = new ResourceCache(this::findUncachedResources, telemetry);
+        this.resourceFinder = resourceCache::find;
+    }
+
+    /**
+     * Adds a jar searched after the existing ones, cached resource lookups are dropped.
+     */
+    public void addJar(Path path) {
+        synchronized (jarLock) {
+            final URL url = rethrowFunction((Path p) -> p.toUri().toURL()).apply(path);
+            delegatedClassLoader.addJar(url);
+            final URL[] urls = Arrays.copyOf(specialJars, specialJars.length + 1);
+            urls[urls.length - 1] = url;
+            specialJars = urls;
+            final JarIndex[] jars = Arrays.copyOf(jarIndexes, jarIndexes.length + 1);
+            jars[jars.length - 1] = JarIndex.open(path);
+            jarIndexes = jars;
+            nameIndex = indexNames(jars);
+            resourceCache.invalidate();
+        }
+    }
+
+    /**
+     * @return Class loading timings, or null unless {@code classloader.telemetry} is set
+     */
+    @Nullable
+    public ClassLoadingTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    /**
+     * Registers a transformer for classes loaded from now on. Transformers run in registration order.
+     */
+    public void addTransformer(IClassTransformer transformer) {
+        classTransformer.addTransformer(transformer);
+    }
+
+    /**
+     * Starts loading the classes recorded by the previous run in the background when {@code classloader.classList}
+     * is set. Call once every transformer is registered, classes loaded earlier are not transformed by later ones.
+     */
+    public void startPreloading() {
+        if (classList != null) classList.start(this);
     }
 
     @Override
@@ -57,23 +119,98 @@ public class TransformingClassLoader extends ClassLoader {
                 return super.loadClass(name, resolve);
             }
             try {
-                LOGGER.trace(CLASSLOADING, "Attempting to load {}", name);
-                final Class<?> loadedClass = loadClass(name, this.resourceFinder);
+                final Class<?> loadedClass = loadClass(name, this.resourceFinder, true);
+                if (classList != null) classList.record(name);
+                if (resolve) {
+                    resolveClass(loadedClass);
+                }
+                return loadedClass;
+            } catch (ClassNotFoundException e) {
+                // Only a missing class falls back to the parent, a class that failed verification must not be served by it
+                return super.loadClass(name, resolve);
+            }
+        }
+    }
+
+    @Override
+    protected URL findResource(String name) {
+        return EnumerationHelper.firstElementOrNull(resourceFinder.apply(name));
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) {
+        return resourceFinder.apply(name);
+    }
+
+    private Enumeration<URL> findUncachedResources(String name) {
+        final Map<String, JarIndex[]> index = nameIndex;
+        if (index == null) return rethrowFunction(delegatedClassLoader::findResources).apply(name);
+        final JarIndex[] jars = index.get(name);
+        if (jars == null) return Collections.emptyEnumeration();
+        List<URL> found = new ArrayList<>(jars.length);
+        for (JarIndex jar : jars) {
+            found.add(rethrowFunction(jar::getEntryUrl).apply(name));
+        }
+        return Collections.enumeration(found);
+    }
+
+    /**
+     * @return The first jar containing the entry, or null if it is in none or the jars are not all indexed
+     */
+    @Nullable
+    private JarIndex findJar(String name) {
+        final Map<String, JarIndex[]> index = nameIndex;
+        final JarIndex[] jars = index == null ? null : index.get(name);
+        return jars == null ? null : jars[0];
+    }
+
+    @Nullable
+    private static Map<String, JarIndex[]> indexNames(JarIndex[] jars) {
+        if (!Arrays.stream(jars).allMatch(Objects::nonNull)) return null;
+        final Map<String, JarIndex[]> index = new HashMap<>();
+        for (JarIndex jar : jars) {
+            for (String name : jar.getNames()) {
+                index.merge(name, new JarIndex[] { jar }, (existing, added) -> {
+                    final JarIndex[] merged = Arrays.copyOf(existing, existing.length + 1);
+                    merged[existing.length] = jar;
+                    return merged;
+                });
             }
         }
+        return index;
     }
 
     private Class<?> getLoadedClass(String name) {
         return findLoadedClass(name);
     }
 
-    public Class<?> loadClass(String name, Function<String,Enumeration<URL>> classBytesFinder) {
+    public Class<?> loadClass(String name, Function<String,Enumeration<URL>> classBytesFinder) throws ClassNotFoundException {
+        return loadClass(name, classBytesFinder, false);
+    }
+
+    /**
+     * @param useJarIndex Whether the class bytes may be read from the jar indexes, only when the finder is this
+     * loader's own resource finder
+     */
+    private Class<?> loadClass(String name, Function<String,Enumeration<URL>> classBytesFinder, boolean useJarIndex) throws ClassNotFoundException {
         final Class<?> exisitingClass = getLoadedClass(name);
         if(exisitingClass != null) {
-            LOGGER.trace(CLASSLOADING, "Found existing class {}", name);
             return exisitingClass;
         }
-        final Map.Entry<byte[], CodeSource> classData = delegatedClassLoader.findClass(name, classBytesFinder, ITransformerActivity.CLASSLOADING_REASON);
+        final ClassLoadingTelemetry.Sample sample = telemetry == null ? null : telemetry.begin(name);
+        try {
+            final Map.Entry<byte[], CodeSource> classData = delegatedClassLoader.findClass(name, classBytesFinder, useJarIndex, ITransformerActivity.CLASSLOADING_REASON, sample);
+            final ProtectionDomain protectionDomain = new ProtectionDomain(classData.getValue(), null, this, null);
+            if (sample != null) sample.startPhase();
+            final Class<?> definedClass = defineClass(name, classData.getKey(), 0, classData.getKey().length, protectionDomain);
+            if (sample != null) {
+                sample.define = sample.endPhase();
+                sample.defined = true;
+            }
+            return definedClass;
+        } finally {
+            if (sample != null) telemetry.end(sample);
+        }
     }
 
 
@@ -113,20 +250,38 @@ public class TransformingClassLoader extends ClassLoader {
     private static class DelegatedClassLoader extends URLClassLoader {
 
         private final TransformingClassLoader tcl;
+        private final Map<String, Package> packages = new ConcurrentHashMap<>();
+        // Main manifest attributes of each jar, keyed by jar URL
+        private final Map<String, PackageAttributes> jarAttributes = new ConcurrentHashMap<>();
 
         public DelegatedClassLoader(TransformingClassLoader transformingClassLoader) {
             super(transformingClassLoader.specialJars, null);
             this.tcl = transformingClassLoader;
         }
 
-        public Map.Entry<byte[], CodeSource> findClass(String name, Function<String, Enumeration<URL>> classBytesFinder, String classloadingReason) throws ClassNotFoundException {
+        void addJar(URL url) {
+            addURL(url);
+        }
+
+        public Map.Entry<byte[], CodeSource> findClass(String name, Function<String, Enumeration<URL>> classBytesFinder, boolean useJarIndex, String classloadingReason, @Nullable ClassLoadingTelemetry.Sample sample) throws ClassNotFoundException {
+            if (sample != null) sample.startPhase();
             final String path = name.replace('.', '/').concat(".class");
-            final URL classResource = EnumerationHelper.firstElementOrNull(classBytesFinder.apply(path));
+            final JarIndex jar = useJarIndex ? tcl.findJar(path) : null;
+            final URL classResource = jar != null ? null : EnumerationHelper.firstElementOrNull(classBytesFinder.apply(path));
             byte[] classBytes;
             CodeSource codeSource = null;
             Manifest jarManifest = null;
             URL baseUrl = null;
-            if(classResource != null) {
+            if(jar != null) {
+                try {
+                    classBytes = jar.read(path);
+                    jarManifest = jar.getManifest();
+                    baseUrl = jar.getEntryUrl(path);
+                } catch (IOException e) {
+                    LOGGER.trace(CLASSLOADING, "Failed to load bytes for class {} from {} reason {}", name, jar.getJarUrl(), classloadingReason, e);
+                    throw new ClassNotFoundException("Failed to find class bytes for " + name, e);
+                }
+            } else if(classResource != null) {
                 try(AutoURLConnection urlConnection = new AutoURLConnection(classResource, tcl.manifestFinder)) {
                     final int length = urlConnection.getContentLength();
                     final InputStream is = urlConnection.getInputStream();
@@ -145,14 +300,18 @@ public class TransformingClassLoader extends ClassLoader {
             } else {
                 classBytes = new byte[0];
             }
-            final byte[] processedClassBytes = tcl.classTransformer.transform(classBytes, name, classloadingReason);
+            if (sample != null) {
+                sample.lookup = sample.endPhase();
+                sample.bytes = classBytes.length;
+                sample.startPhase();
+            }
+            final byte[] processedClassBytes = tcl.classTransformer.transform(classBytes, name, classloadingReason, sample);
+            if (sample != null) sample.transform = sample.endPhase();
             if(processedClassBytes.length > 0) {
-                LOGGER.trace(CLASSLOADING, "Loading transform target {} from {} reason {}", name, classResource, classloadingReason);
-
                 if(classloadingReason.equals(ITransformerActivity.CLASSLOADING_REASON)) {
                     int i = name.lastIndexOf('.');
                     String pkgname = i > 0 ? name.substring(0, i) : "";
-                    tryDefinePackage(pkgname, jarManifest);
+                    tryDefinePackage(pkgname, jarManifest, baseUrl);
                     codeSource = SecureJarHandler.createCodeSource(path, baseUrl, classBytes, jarManifest);
                 }
 
@@ -163,53 +322,63 @@ public class TransformingClassLoader extends ClassLoader {
             }
         }
 
-        Package tryDefinePackage(String name, @Nullable Manifest man) {
-            if(tcl.getPackage(name) == null) {
-                synchronized (this) {
-                    if(tcl.getPackage(name) != null) return tcl.getPackage(name);
-
-                    String path = name.replace('.', '/').concat("/");
-                    String specTitle = null, specVersion = null, specVendor = null;
-                    String implTitle = null, implVersion = null, implVendor = null;
-
-                    if(man != null) {
-                        Attributes attr = man.getAttributes(path);
-                        if(attr != null) {
-                            specTitle = attr.getValue(Attributes.Name.SPECIFICATION_TITLE);
-                            specVersion = attr.getValue(Attributes.Name.SPECIFICATION_VERSION);
-                            specVendor = attr.getValue(Attributes.Name.SPECIFICATION_VENDOR);
-                            implTitle = attr.getValue(Attributes.Name.IMPLEMENTATION_TITLE);
-                            implVersion = attr.getValue(Attributes.Name.IMPLEMENTATION_VERSION);
-                            implVendor = attr.getValue(Attributes.Name.IMPLEMENTATION_VENDOR);
-                        }
-                        attr = man.getMainAttributes();
-                        if (attr != null) {
-                            if (specTitle == null) {
-                                specTitle = attr.getValue(Attributes.Name.SPECIFICATION_TITLE);
-                            }
-                            if (specVersion == null) {
-                                specVersion = attr.getValue(Attributes.Name.SPECIFICATION_VERSION);
-                            }
-                            if (specVendor == null) {
-                                specVendor = attr.getValue(Attributes.Name.SPECIFICATION_VENDOR);
-                            }
-                            if (implTitle == null) {
-                                implTitle = attr.getValue(Attributes.Name.IMPLEMENTATION_TITLE);
-                            }
-                            if (implVersion == null) {
-                                implVersion = attr.getValue(Attributes.Name.IMPLEMENTATION_VERSION);
-                            }
-                            if (implVendor == null) {
-                                implVendor = attr.getValue(Attributes.Name.IMPLEMENTATION_VENDOR);
-                            }
-                        }
-                    }
-                    return tcl.definePackage(name, specTitle, specVersion, specVendor, implTitle, implVersion, implVendor, null);
-                }
-            } else {
-                return  tcl.getPackage(name);
-            }
+        Package tryDefinePackage(String name, @Nullable Manifest man, @Nullable URL baseUrl) {
+            final Package defined = packages.get(name);
+            if(defined != null) return defined;
+            // Only blocks threads defining the same package, unlike locking the loader
+            return packages.computeIfAbsent(name, pkg -> {
+                final Package existing = tcl.getDefinedPackage(pkg);
+                if(existing != null) return existing;
+                final PackageAttributes attributes = getPackageAttributes(pkg, man, baseUrl);
+                return tcl.definePackage(pkg, attributes.specTitle, attributes.specVersion, attributes.specVendor,
+                        attributes.implTitle, attributes.implVersion, attributes.implVendor, null);
+            });
+        }
+
+        private PackageAttributes getPackageAttributes(String name, @Nullable Manifest man, @Nullable URL baseUrl) {
+            if(man == null) return PackageAttributes.EMPTY;
+            final String spec = baseUrl == null ? null : baseUrl.toString();
+            final int separator = spec == null ? -1 : spec.indexOf("!/");
+            final PackageAttributes main = separator < 0 ? PackageAttributes.of(man.getMainAttributes(), PackageAttributes.EMPTY)
+                    : jarAttributes.computeIfAbsent(spec.substring(0, separator), jar -> PackageAttributes.of(man.getMainAttributes(), PackageAttributes.EMPTY));
+            final Attributes section = man.getAttributes(name.replace('.', '/').concat("/"));
+            return section == null ? main : PackageAttributes.of(section, main);
+        }
+
+    }
+
+    /**
+     * Specification and implementation attributes of a package, read from its manifest section with the main
+     * attributes as fallback.
+     */
+    private static final class PackageAttributes {
+        static final PackageAttributes EMPTY = new PackageAttributes(null, null, null, null, null, null);
+
+        final String specTitle, specVersion, specVendor;
+        final String implTitle, implVersion, implVendor;
+
+        private PackageAttributes(String specTitle, String specVersion, String specVendor, String implTitle, String implVersion, String implVendor) {
+            this.specTitle = specTitle;
+            this.specVersion = specVersion;
+            this.specVendor = specVendor;
+            this.implTitle = implTitle;
+            this.implVersion = implVersion;
+            this.implVendor = implVendor;
         }
 
+        static PackageAttributes of(Attributes attr, PackageAttributes fallback) {
+            return new PackageAttributes(
+                    valueOr(attr, Attributes.Name.SPECIFICATION_TITLE, fallback.specTitle),
+                    valueOr(attr, Attributes.Name.SPECIFICATION_VERSION, fallback.specVersion),
+                    valueOr(attr, Attributes.Name.SPECIFICATION_VENDOR, fallback.specVendor),
+                    valueOr(attr, Attributes.Name.IMPLEMENTATION_TITLE, fallback.implTitle),
+                    valueOr(attr, Attributes.Name.IMPLEMENTATION_VERSION, fallback.implVersion),
+                    valueOr(attr, Attributes.Name.IMPLEMENTATION_VENDOR, fallback.implVendor));
+        }
+
+        private static String valueOr(Attributes attr, Attributes.Name name, String fallback) {
+            final String value = attr.getValue(name);
+            return value != null ? value : fallback;
+        }
     }
 }
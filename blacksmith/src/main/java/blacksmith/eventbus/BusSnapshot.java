@@ -0,0 +1,99 @@
+package blacksmith.eventbus;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable view of the listeners registered on an {@link IEventBus} at the time {@link IEventBus#snapshot()}
+ * was called.
+ *
+ * Only event classes with listeners registered directly on them, or with a non empty dispatch table, are included.
+ */
+public final class BusSnapshot {
+    private final int busID;
+    private final List<EventEntry> events;
+
+    BusSnapshot(int busID, List<EventEntry> events) {
+        this.busID = busID;
+        this.events = Collections.unmodifiableList(events);
+    }
+
+    public int getBusID() {
+        return busID;
+    }
+
+    public List<EventEntry> getEvents() {
+        return events;
+    }
+
+    /**
+     * @return The estimated retained size of every listener table on the bus, in bytes
+     */
+    public long getEstimatedBytes() {
+        return events.stream().mapToLong(EventEntry::getEstimatedBytes).sum();
+    }
+
+    public static final class EventEntry {
+        private final Class<?> eventClass;
+        private final Map<EventPriority, Integer> listenerCounts;
+        private final List<String> listenerNames;
+        private final int dispatchTableLength;
+        private final long rebuildCount;
+        private final long estimatedBytes;
+
+        EventEntry(Class<?> eventClass, EnumMap<EventPriority, Integer> listenerCounts, List<String> listenerNames, int dispatchTableLength, long rebuildCount, long estimatedBytes) {
+            this.eventClass = eventClass;
+            this.listenerCounts = Collections.unmodifiableMap(listenerCounts);
+            this.listenerNames = Collections.unmodifiableList(listenerNames);
+            this.dispatchTableLength = dispatchTableLength;
+            this.rebuildCount = rebuildCount;
+            this.estimatedBytes = estimatedBytes;
+        }
+
+        public Class<?> getEventClass() {
+            return eventClass;
+        }
+
+        /**
+         * @return The number of listeners registered directly on this event class, keyed listeners included, per priority
+         */
+        public Map<EventPriority, Integer> getListenerCounts() {
+            return listenerCounts;
+        }
+
+        /**
+         * @return The {@link IEventListener#listenerName()} of each listener registered directly on this event class
+         */
+        public List<String> getListenerNames() {
+            return listenerNames;
+        }
+
+        /**
+         * @return The length of the cached dispatch array, including inherited listeners and phase markers
+         */
+        public int getDispatchTableLength() {
+            return dispatchTableLength;
+        }
+
+        /**
+         * @return How many times the dispatch array has been rebuilt
+         */
+        public long getRebuildCount() {
+            return rebuildCount;
+        }
+
+        /**
+         * @return Estimated retained size of the listener lists and cached arrays, assuming compressed references
+         */
+        public long getEstimatedBytes() {
+            return estimatedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return eventClass.getName() + " " + listenerCounts + " table=" + dispatchTableLength + " rebuilds=" + rebuildCount + " ~" + estimatedBytes + "B";
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package blacksmith.eventbus;
+
+import java.lang.reflect.Type;
+import java.util.function.Consumer;
+
+/**
+ * Listener wrapping a {@link Consumer} registered through {@link IEventBus#addListener} or
+ * {@link IEventBus#addGenericListener}.
+ *
+ * Each combination of cancellation and generic filtering gets its own final subclass, so a post
+ * performs the filter checks inline and calls the consumer directly instead of going through
+ * predicate chains.
+ */
+abstract class ConsumerEventListener<T extends Event> implements IEventListener {
+    protected final Consumer<T> consumer;
+
+    private ConsumerEventListener(Consumer<T> consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Creates the specialised listener for the given filters.
+     *
+     * @param consumer Callback to invoke
+     * @param genericFilter The generic type to filter on, or null for no generic filter
+     * @param receiveCancelled Whether the consumer should see cancelled events
+     */
+    static <T extends Event> IEventListener of(Consumer<T> consumer, Type genericFilter, boolean receiveCancelled) {
+        if (genericFilter == null) {
+            return receiveCancelled ? new Plain<>(consumer) : new CancelAware<>(consumer);
+        }
+        return receiveCancelled ? new Generic<>(consumer, genericFilter) : new GenericCancelAware<>(consumer, genericFilter);
+    }
+
+    @Override
+    public String listenerName() {
+        return consumer.getClass().getName();
+    }
+
+    @Override
+    public String toString() {
+        return "Consumer: " + consumer;
+    }
+
+    private static final class Plain<T extends Event> extends ConsumerEventListener<T> {
+        Plain(Consumer<T> consumer) {
+            super(consumer);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void invoke(Event event) {
+            consumer.accept((T) event);
+        }
+    }
+
+    private static final class CancelAware<T extends Event> extends ConsumerEventListener<T> {
+        CancelAware(Consumer<T> consumer) {
+            super(consumer);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void invoke(Event event) {
+            if (!event.isCancelable() || !event.isCanceled()) {
+                consumer.accept((T) event);
+            }
+        }
+    }
+
+    private static final class Generic<T extends Event> extends ConsumerEventListener<T> {
+        private final Type filter;
+
+        Generic(Consumer<T> consumer, Type filter) {
+            super(consumer);
+            this.filter = filter;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void invoke(Event event) {
+            if (((IGenericEvent<?>) event).getGenericType() == filter) {
+                consumer.accept((T) event);
+            }
+        }
+    }
+
+    private static final class GenericCancelAware<T extends Event> extends ConsumerEventListener<T> {
+        private final Type filter;
+
+        GenericCancelAware(Consumer<T> consumer, Type filter) {
+            super(consumer);
+            this.filter = filter;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void invoke(Event event) {
+            if ((!event.isCancelable() || !event.isCanceled()) && ((IGenericEvent<?>) event).getGenericType() == filter) {
+                consumer.accept((T) event);
+            }
+        }
+    }
+}
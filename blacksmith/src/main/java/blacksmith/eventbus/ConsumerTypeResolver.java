@@ -0,0 +1,81 @@
+package blacksmith.eventbus;
+
+import net.jodah.typetools.TypeResolver;
+import org.objectweb.asm.Type;
+
+import java.lang.invoke.SerializedLambda;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Resolves the event type accepted by a lambda or method reference {@link Consumer}.
+ *
+ * Resolution is done once per consumer class and cached, lambdas created at the same call site share a class
+ * so registering many of them only pays for the introspection once. The cached type is final once computed.
+ *
+ * When {@code eventbus.serializedLambdaResolver} is set and {@link TypeResolver} can only find an erased type,
+ * the instantiated method type of the lambda's {@link SerializedLambda} form is used instead. This recovers the
+ * event type for lambdas whose generic signature was erased, but only works for serializable lambdas.
+ */
+final class ConsumerTypeResolver {
+    private static final boolean useSerializedLambda = Boolean.parseBoolean(System.getProperty("eventbus.serializedLambdaResolver", "false"));
+
+    // The consumer being resolved, the serialized form needs an instance of the lambda class
+    private static final ThreadLocal<Consumer<?>> RESOLVING = new ThreadLocal<>();
+    private static final LongAdder resolutions = new LongAdder();
+    private static final ClassValue<Class<?>> RESOLVED = new ClassValue<Class<?>>() {
+        @Override
+        protected Class<?> computeValue(Class<?> type) {
+            resolutions.increment();
+            Class<?> resolved = TypeResolver.resolveRawArgument(Consumer.class, type);
+            Consumer<?> consumer = RESOLVING.get();
+            if (useSerializedLambda && isErased(resolved) && consumer != null && consumer.getClass() == type) {
+                Class<?> recovered = fromSerializedLambda(consumer);
+                if (recovered != null) return recovered;
+            }
+            return resolved;
+        }
+    };
+
+    private ConsumerTypeResolver() {}
+
+    /**
+     * @return The resolved event class, or {@link TypeResolver.Unknown} if it could not be determined
+     */
+    static Class<?> resolve(Consumer<?> consumer) {
+        RESOLVING.set(consumer);
+        try {
+            return RESOLVED.get(consumer.getClass());
+        } finally {
+            RESOLVING.remove();
+        }
+    }
+
+    /**
+     * @return How many consumer classes have been introspected so far
+     */
+    static long getResolutions() {
+        return resolutions.sum();
+    }
+
+    private static boolean isErased(Class<?> type) {
+        return type == TypeResolver.Unknown.class || type == Event.class;
+    }
+
+    private static Class<?> fromSerializedLambda(Consumer<?> consumer) {
+        try {
+            Method writeReplace = consumer.getClass().getDeclaredMethod("writeReplace");
+            writeReplace.setAccessible(true);
+            Object replacement = writeReplace.invoke(consumer);
+            if (!(replacement instanceof SerializedLambda)) return null;
+
+            Type[] args = Type.getMethodType(((SerializedLambda) replacement).getInstantiatedMethodType()).getArgumentTypes();
+            if (args.length != 1 || args[0].getSort() != Type.OBJECT) return null;
+            Class<?> type = Class.forName(args[0].getClassName(), false, consumer.getClass().getClassLoader());
+            return Event.class.isAssignableFrom(type) ? type : null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -1,269 +1,416 @@
-package blacksmith.eventbus;
-
-import net.jodah.typetools.TypeResolver;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import org.objectweb.asm.ClassReader;
-
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Consumer;
-import java.util.function.Predicate;
-import java.util.logging.ErrorManager;
-
-import static blacksmith.eventbus.LogMarkers.EVENTBUS;
-
-public class EventBus implements IEventExceptionHandler, IEventBus {
-
-    private static final Logger LOGGER = LogManager.getLogger();
-    private static final boolean checkTypesOnDispatch = Boolean.parseBoolean(System.getProperty("eventbus.checkTypesOnDispatch", "false"));
-    private static AtomicInteger maxID = new AtomicInteger(0);
-    private final boolean trackPhases;
-    private final Class<?> baseType;
-
-
-    private ConcurrentHashMap<Object, List<IEventListener>> listeners = new ConcurrentHashMap<>();
-    private final int busID = maxID.getAndIncrement();
-    private final IEventExceptionHandler exceptionHandler;
-    private volatile boolean shutdown = false;
-
-
-    private EventBus() {
-        ListenerList.resize(busID + 1);
-        exceptionHandler = this;
-        this.trackPhases = true;
-        this.baseType = Event.class;
-    }
-
-    private EventBus(final IEventExceptionHandler handler, boolean trackPhase, boolean startShutdown, Class<?> baseType)
-    {
-        ListenerList.resize(busID + 1);
-        if (handler == null) exceptionHandler = this;
-        else exceptionHandler = handler;
-        this.trackPhases = trackPhase;
-        this.shutdown = startShutdown;
-        this.baseType = baseType;
-    }
-
-    public EventBus(final BusBuilder busBuilder) {
-        this(busBuilder.getExceptionHandler(), busBuilder.getTrackPhases(), busBuilder.isStartingShutdown(), busBuilder.getMarkerType());
-    }
-
-
-
-    public void register(final Object obj) {
-        if(obj.getClass() == Class.class) {
-            registerClass((Class<?>)obj);
-        }
-        else {
-            registerObject(obj);
-        }
-    }
-
-    private <T extends Event> Predicate<T> passCancelled(final boolean ignored) {
-        return e-> ignored || !e.isCancelable() || !e.isCanceled();
-    }
-
-    private <T extends GenericEvent<? extends F>, F> Predicate<T> passGenericFilter(Class<F> type) {
-        return e->e.getGenericType() == type;
-    }
-
-    private void checkNotGeneric(final Consumer<? extends Event> consumer) {
-        checkNotGeneric(getEventClass(consumer));
-    }
-
-    @SuppressWarnings("unchecked")
-    private <T extends Event> Class<T> getEventClass(Consumer<T> consumer) {
-        final Class<T> eventClass = (Class<T>) TypeResolver.resolveRawArgument(Consumer.class, consumer.getClass());
-        if ((Class<?>)eventClass == TypeResolver.Unknown.class) {
-            LOGGER.error(EVENTBUS, "Failed to resolve handler for \"{}\"", consumer.toString());
-            throw new IllegalStateException("Failed to resolve consumer event type: " + consumer.toString());
-        }
-        return eventClass;
-    }
-    private void checkNotGeneric(final Class<? extends Event> eventType) {
-        if (GenericEvent.class.isAssignableFrom(eventType)) {
-            throw new IllegalArgumentException("Cannot register a generic event listener with addListener, use addGenericListener");
-        }
-    }
-
-    @Override
-    public <T extends Event> void addListener(Consumer<T> consumer) {
-        checkNotGeneric(consumer);
-        addListener(EventPriority.NORMAL, consumer);
-    }
-
-
-    @Override
-    public <T extends Event> void addListener(EventPriority priority, Consumer<T> consumer) {
-        checkNotGeneric(consumer);
-        addListener(priority, false, consumer);
-    }
-
-    @Override
-    public <T extends Event> void addListener(EventPriority priority, boolean receiveCancelled, Consumer<T> consumer) {
-        checkNotGeneric(consumer);
-        addListener(priority, passCancelled(receiveCancelled), consumer);
-    }
-
-    @Override
-    public <T extends Event> void addListener(EventPriority priority, boolean receiveCancelled, Class<T> eventType, Consumer<T> consumer) {
-        checkNotGeneric(eventType);
-        addListener(priority, passCancelled(receiveCancelled), eventType, consumer);
-    }
-
-    @Override
-    public <T extends GenericEvent<? extends F>, F> void addGenericListener(Class<F> genericClassFilter, Consumer<T> consumer) {
-        addGenericListener(genericClassFilter, EventPriority.NORMAL, consumer);
-    }
-
-    @Override
-    public <T extends GenericEvent<? extends F>, F> void addGenericListener(Class<F> genericClassFilter, EventPriority priority, Consumer<T> consumer) {
-        addGenericListener(genericClassFilter, priority, false, consumer);
-    }
-
-    @Override
-    public <T extends GenericEvent<? extends F>, F> void addGenericListener(Class<F> genericClassFilter, EventPriority priority, boolean receiveCancelled, Consumer<T> consumer) {
-        addListener(priority, passGenericFilter(genericClassFilter).and(passCancelled(receiveCancelled)), consumer);
-    }
-
-    @Override
-    public <T extends GenericEvent<? extends F>, F> void addGenericListener(Class<F> genericClassFilter, EventPriority priority, boolean receiveCancelled, Class<T> eventType, Consumer<T> consumer) {
-        addListener(priority, passGenericFilter(genericClassFilter).and(passCancelled(receiveCancelled)), eventType, consumer);
-    }
-
-    private <T extends Event> void addListener(final EventPriority priority, final Predicate<? super T> filter, final Consumer<T> consumer) {
-        Class<T> eventClass = getEventClass(consumer);
-        if (Objects.equals(eventClass, Event.class))
-            LOGGER.warn(EVENTBUS,"Attempting to add a Lambda listener with computed generic type of Event. " +
-                    "Are you sure this is what you meant? NOTE : there are complex lambda forms where " +
-                    "the generic type information is erased and cannot be recovered at runtime.");
-        addListener(priority, filter, eventClass, consumer);
-    }
-
-    private <T extends Event> void addListener(final EventPriority priority, final Predicate<? super T> filter, final Class<T> eventClass, final Consumer<T> consumer) {
-        if (baseType != Event.class && !baseType.isAssignableFrom(eventClass)) {
-            throw new IllegalArgumentException(
-                    "Listener for event " + eventClass + " takes an argument that is not a subtype of the base type " + baseType);
-        }
-        addToListeners(consumer, eventClass, NamedEventListener.namedWrapper(e-> doCastFilter(filter, eventClass, consumer, e), consumer.getClass()::getName), priority);
-    }
-
-    @SuppressWarnings("unchecked")
-    private <T extends Event> void doCastFilter(final Predicate<? super T> filter, final Class<T> eventClass, final Consumer<T> consumer, final Event e) {
-        T cast = (T)e;
-        if (filter.test(cast))
-        {
-            consumer.accept(cast);
-        }
-    }
-
-
-    @Override
-    public void unregister(Object object) {
-        List<IEventListener> list = listeners.remove(object);
-        if(list == null)
-            return;
-        for (IEventListener listener : list)
-        {
-            ListenerList.unregisterAll(busID, listener);
-        }
-    }
-
-    @Override
-    public boolean post(Event event) {         return post(event, (IEventListener::invoke));
-    }
-
-    @Override
-    public boolean post(Event event, IEventBusInvokeDispatcher wrapper) {
-        if (shutdown) return false;
-        if (EventBus.checkTypesOnDispatch && !baseType.isInstance(event))
-        {
-            throw new IllegalArgumentException("Cannot post event of type " + event.getClass().getSimpleName() + " to this event. Must match type: " + baseType.getSimpleName());
-        }
-
-        IEventListener[] listeners = event.getListenerList().getListeners(busID);
-        int index = 0;
-        try
-        {
-            for (; index < listeners.length; index++)
-            {
-                if (!trackPhases && Objects.equals(listeners[index].getClass(), EventPriority.class)) continue;
-                wrapper.invoke(listeners[index], event);
-            }
-        }
-        catch (Throwable throwable)
-        {
-            exceptionHandler.handleException(this, event, listeners, index, throwable);
-            throw throwable;
-        }
-        return event.isCancelable() && event.isCanceled();
-    }
-
-    @Override
-    public void shutdown() {
-        LOGGER.fatal(EVENTBUS, "EventBus {} shutting down - future events will not be posted.", busID, new Exception("stacktrace"));
-        this.shutdown = true;
-    }
-
-    @Override
-    public void start() {
-        this.shutdown = false;
-    }
-
-    public void registerClass(Class<?> clazz) {
-        Arrays.stream(clazz.getMethods())
-                .filter(method -> Modifier.isStatic(method.getModifiers()))
-                .filter(method -> method.isAnnotationPresent(SubscribeEvent.class))
-                .forEach(method -> registerListener(clazz, method, method));
-
-    }
-
-
-
-    public void registerObject(Object obj) {
-
-    }
-
-    private void registerListener(final Object object, Method method, Method real) {
-        Class<?>[] parameterTy = method.getParameterTypes();
-        if(parameterTy.length != 1) {
-            throw new IllegalArgumentException("Method:" + method + " is an event subscriber but has more than 1 argument");
-        }
-
-        Class<?> eventType = parameterTy[0];
-        if(!Event.class.isAssignableFrom(eventType)) {
-            throw new IllegalArgumentException("Method: " + method+ " is an event subscriber but takes an argument that is not an event subtype");
-        }
-
-        register(eventType, object, real);
-    }
-
-    private void register(Class<?> eventType, Object object, Method real) {
-        try {
-            final ASMEventHandler asm = new ASMEventHandler(object, real, IGenericEvent.class.isAssignableFrom(eventType));
-
-            addToListeners(object, eventType, asm, asm.getPriority());
-        } catch (IllegalAccessException | InstantiationException | NoSuchMethodException | InvocationTargetException e) {
-            LOGGER.error(EVENTBUS ,"Error registering event handler: {} {}", eventType, real, e);
-        }
-    }
-
-    private void addToListeners(final Object target, final Class<?> eventType, final IEventListener listener, EventPriority priority) {
-        ListenerList list = EventListenerHelper.getListenerList(eventType);
-        list.register(busID, priority, listener);
-        List<IEventListener> others = listeners.computeIfAbsent(target, k-> Collections.synchronizedList(new ArrayList<>()));
-        others.add(listener);
-    }
-
-
-
-    @Override
-    public void handleException(IEventBus bus, Event event, IEventListener[] listeners, int index, Throwable throwable) {
-        LOGGER.error(EVENTBUS, ()->new EventBusErrorMessage(event, index, listeners, throwable));
-    }
-}
+package blacksmith.eventbus;
+
+import net.jodah.typetools.TypeResolver;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.objectweb.asm.ClassReader;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.ErrorManager;
+
+import static blacksmith.eventbus.LogMarkers.EVENTBUS;
+
+public class EventBus implements IEventExceptionHandler, IEventBus {
+
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final boolean checkTypesOnDispatch = Boolean.parseBoolean(System.getProperty("eventbus.checkTypesOnDispatch", "false"));
+    private static AtomicInteger maxID = new AtomicInteger(0);
+    private final boolean trackPhases;
+    private final Class<?> baseType;
+
+
+    private ConcurrentHashMap<Object, List<IEventListener>> listeners = new ConcurrentHashMap<>();
+    private final int busID = maxID.getAndIncrement();
+    private final IEventExceptionHandler exceptionHandler;
+    @Nullable
+    private final IEventPostObserver postObserver;
+    @Nullable
+    private final FailurePolicy failurePolicy;
+    private volatile boolean shutdown = false;
+    private final AtomicInteger batchDepth = new AtomicInteger(0);
+    private final Set<ListenerList> batchedLists = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<Class<? extends Event>, LongAdder> deadEvents = new ConcurrentHashMap<>();
+
+
+    private EventBus() {
+        ListenerList.resize(busID + 1);
+        exceptionHandler = this;
+        this.trackPhases = true;
+        this.baseType = Event.class;
+        this.postObserver = null;
+        this.failurePolicy = null;
+    }
+
+    private EventBus(final IEventExceptionHandler handler, boolean trackPhase, boolean startShutdown, Class<?> baseType, @Nullable IEventPostObserver postObserver, @Nullable FailurePolicy failurePolicy)
+    {
+        ListenerList.resize(busID + 1);
+        if (handler == null) exceptionHandler = this;
+        else exceptionHandler = handler;
+        this.trackPhases = trackPhase;
+        this.shutdown = startShutdown;
+        this.baseType = baseType;
+        this.postObserver = postObserver;
+        this.failurePolicy = failurePolicy;
+    }
+
+    public EventBus(final BusBuilder busBuilder) {
+        this(busBuilder.getExceptionHandler(), busBuilder.getTrackPhases(), busBuilder.isStartingShutdown(), busBuilder.getMarkerType(), busBuilder.getPostObserver(), busBuilder.getFailurePolicy());
+    }
+
+
+
+    public void register(final Object obj) {
+        if(obj.getClass() == Class.class) {
+            registerClass((Class<?>)obj);
+        }
+        else {
+            registerObject(obj);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Event> Class<T> getEventClass(Consumer<T> consumer) {
+        final Class<T> eventClass = (Class<T>) ConsumerTypeResolver.resolve(consumer);
+        if ((Class<?>)eventClass == TypeResolver.Unknown.class) {
+            LOGGER.error(EVENTBUS, "Failed to resolve handler for \"{}\"", consumer.toString());
+            throw new IllegalStateException("Failed to resolve consumer event type: " + consumer.toString());
+        }
+        if (Objects.equals(eventClass, Event.class))
+            LOGGER.warn(EVENTBUS,"Attempting to add a Lambda listener with computed generic type of Event. " +
+                    "Are you sure this is what you meant? NOTE : there are complex lambda forms where " +
+                    "the generic type information is erased and cannot be recovered at runtime.");
+        return eventClass;
+    }
+    private void checkBaseType(final Class<?> eventClass) {
+        if (baseType != Event.class && !baseType.isAssignableFrom(eventClass)) {
+            throw new IllegalArgumentException(
+                    "Listener for event " + eventClass + " takes an argument that is not a subtype of the base type " + baseType);
+        }
+    }
+
+    /**
+     * @return true if listeners can subscribe to the interface, it must extend {@link IEventInterface} or an
+     *         interface marker type of this bus
+     */
+    private boolean isEventInterface(final Class<?> type) {
+        return type.isInterface() && (IEventInterface.class.isAssignableFrom(type) || (baseType.isInterface() && baseType.isAssignableFrom(type)));
+    }
+
+    private void checkNotGeneric(final Class<? extends Event> eventType) {
+        if (GenericEvent.class.isAssignableFrom(eventType)) {
+            throw new IllegalArgumentException("Cannot register a generic event listener with addListener, use addGenericListener");
+        }
+    }
+
+    @Override
+    public <T extends Event> void addListener(Consumer<T> consumer) {
+        addListener(EventPriority.NORMAL, false, consumer);
+    }
+
+
+    @Override
+    public <T extends Event> void addListener(EventPriority priority, Consumer<T> consumer) {
+        addListener(priority, false, consumer);
+    }
+
+    @Override
+    public <T extends Event> void addListener(EventPriority priority, boolean receiveCancelled, Consumer<T> consumer) {
+        Class<T> eventClass = getEventClass(consumer);
+        checkNotGeneric(eventClass);
+        addListener(priority, null, receiveCancelled, eventClass, consumer);
+    }
+
+    @Override
+    public <T extends Event> void addListener(EventPriority priority, boolean receiveCancelled, Class<T> eventType, Consumer<T> consumer) {
+        checkNotGeneric(eventType);
+        addListener(priority, null, receiveCancelled, eventType, consumer);
+    }
+
+    @Override
+    public <T extends GenericEvent<? extends F>, F> void addGenericListener(Class<F> genericClassFilter, Consumer<T> consumer) {
+        addGenericListener(genericClassFilter, EventPriority.NORMAL, consumer);
+    }
+
+    @Override
+    public <T extends GenericEvent<? extends F>, F> void addGenericListener(Class<F> genericClassFilter, EventPriority priority, Consumer<T> consumer) {
+        addGenericListener(genericClassFilter, priority, false, consumer);
+    }
+
+    @Override
+    public <T extends GenericEvent<? extends F>, F> void addGenericListener(Class<F> genericClassFilter, EventPriority priority, boolean receiveCancelled, Consumer<T> consumer) {
+        addListener(priority, genericClassFilter, receiveCancelled, consumer);
+    }
+
+    @Override
+    public <T extends GenericEvent<? extends F>, F> void addGenericListener(Class<F> genericClassFilter, EventPriority priority, boolean receiveCancelled, Class<T> eventType, Consumer<T> consumer) {
+        addListener(priority, genericClassFilter, receiveCancelled, eventType, consumer);
+    }
+
+    @Override
+    public <T extends Event & IKeyedEvent<K>, K> void addKeyedListener(Class<T> eventType, K key, Consumer<T> consumer) {
+        addKeyedListener(EventPriority.NORMAL, false, eventType, key, consumer);
+    }
+
+    @Override
+    public <T extends Event & IKeyedEvent<K>, K> void addKeyedListener(EventPriority priority, boolean receiveCancelled, Class<T> eventType, K key, Consumer<T> consumer) {
+        Objects.requireNonNull(key, "Keyed listener key must not be null");
+        checkNotGeneric(eventType);
+        checkBaseType(eventType);
+        addToListeners(consumer, eventType, key, ConsumerEventListener.of(consumer, null, receiveCancelled), priority);
+    }
+
+    @Override
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public <T> void addInterfaceListener(EventPriority priority, boolean receiveCancelled, Class<T> eventInterface, Consumer<T> consumer) {
+        if (!isEventInterface(eventInterface)) {
+            throw new IllegalArgumentException("Cannot register " + eventInterface + " as an interface listener, it is not an interface extending IEventInterface or the bus marker type");
+        }
+        checkBaseType(eventInterface);
+        addToListeners(consumer, eventInterface, ConsumerEventListener.of((Consumer) consumer, null, receiveCancelled), priority);
+    }
+
+    private <T extends Event> void addListener(final EventPriority priority, final Class<?> genericFilter, final boolean receiveCancelled, final Consumer<T> consumer) {
+        addListener(priority, genericFilter, receiveCancelled, getEventClass(consumer), consumer);
+    }
+
+    private <T extends Event> void addListener(final EventPriority priority, final Class<?> genericFilter, final boolean receiveCancelled, final Class<T> eventClass, final Consumer<T> consumer) {
+        checkBaseType(eventClass);
+        addToListeners(consumer, eventClass, ConsumerEventListener.of(consumer, genericFilter, receiveCancelled), priority);
+    }
+
+
+    @Override
+    public void unregister(Object object) {
+        List<IEventListener> list = listeners.remove(object);
+        if(list == null)
+            return;
+        for (IEventListener listener : list)
+        {
+            ListenerList.unregisterAll(busID, listener);
+        }
+    }
+
+    @Override
+    public boolean post(Event event) {         return post(event, (IEventListener::invoke));
+    }
+
+    @Override
+    public boolean post(Event event, IEventBusInvokeDispatcher wrapper) {
+        if (shutdown) return false;
+        if (EventBus.checkTypesOnDispatch && !baseType.isInstance(event))
+        {
+            throw new IllegalArgumentException("Cannot post event of type " + event.getClass().getSimpleName() + " to this event. Must match type: " + baseType.getSimpleName());
+        }
+        if (postObserver != null) postObserver.onPosting(this, event);
+
+        IEventListener[] listeners = event instanceof IKeyedEvent
+                ? event.getListenerList().getListeners(busID, ((IKeyedEvent<?>) event).getEventKey())
+                : event.getListenerList().getListeners(busID);
+        if (listeners.length == 0) {
+            deadEvents.computeIfAbsent(event.getClass(), k -> new LongAdder()).increment();
+            if (postObserver != null) postObserver.onPosted(this, event);
+            return event.isCancelable() && event.isCanceled();
+        }
+        Event.ShortCircuit shortCircuit = EventListenerHelper.getShortCircuit(event.getClass());
+        // A result set before posting is not a listener's decision
+        final Event.Result initialResult = shortCircuit == null ? null : event.getResult();
+        int index = 0;
+        try
+        {
+            boolean decided = false;
+            for (; index < listeners.length; index++)
+            {
+                final boolean phaseMarker = Objects.equals(listeners[index].getClass(), EventPriority.class);
+                if (phaseMarker)
+                {
+                    if (decided) break;
+                    if (!trackPhases) continue;
+                }
+                wrapper.invoke(listeners[index], event);
+                // Short circuit events stop at the first decision, or at the end of its phase
+                if (shortCircuit != null && !phaseMarker && !decided && event.getResult() != initialResult && event.getResult() != Event.Result.DEFAULT)
+                {
+                    if (!shortCircuit.finishPhase()) break;
+                    decided = true;
+                }
+            }
+        }
+        catch (Throwable throwable)
+        {
+            exceptionHandler.handleException(this, event, listeners, index, throwable);
+            if (postObserver != null) postObserver.onPostFailed(this, event, throwable);
+            throw throwable;
+        }
+        if (postObserver != null) postObserver.onPosted(this, event);
+        return event.isCancelable() && event.isCanceled();
+    }
+
+    @Override
+    public Event.Result postForResult(Event event) {
+        post(event);
+        return event.getResult();
+    }
+
+    @Override
+    public <T extends Event> boolean post(Class<T> eventType, Supplier<? extends T> factory) {
+        if (shutdown || !hasListeners(eventType)) return false;
+        return post(factory.get());
+    }
+
+    @Override
+    public boolean hasListeners(Class<? extends Event> eventType) {
+        return EventListenerHelper.getListenerList(eventType).hasListeners(busID);
+    }
+
+    @Override
+    public Map<Class<? extends Event>, Long> getDeadEventCounts() {
+        Map<Class<? extends Event>, Long> counts = new HashMap<>();
+        deadEvents.forEach((type, count) -> counts.put(type, count.sum()));
+        return Collections.unmodifiableMap(counts);
+    }
+
+    @Override
+    public List<GuardedEventListener> getGuardedListeners() {
+        List<GuardedEventListener> guarded = new ArrayList<>();
+        for (List<IEventListener> registered : listeners.values()) {
+            synchronized (registered) {
+                for (IEventListener listener : registered) {
+                    if (listener instanceof GuardedEventListener) guarded.add((GuardedEventListener) listener);
+                }
+            }
+        }
+        return Collections.unmodifiableList(guarded);
+    }
+
+    @Override
+    public BusSnapshot snapshot() {
+        List<BusSnapshot.EventEntry> events = new ArrayList<>();
+        EventListenerHelper.getAllListenerLists().forEach((eventClass, list) -> {
+            BusSnapshot.EventEntry entry = list.snapshot(busID, eventClass);
+            if (entry != null) events.add(entry);
+        });
+        events.sort(Comparator.comparing(entry -> entry.getEventClass().getName()));
+        return new BusSnapshot(busID, events);
+    }
+
+    @Override
+    public void batch(Runnable registrations) {
+        beginBatch();
+        try {
+            registrations.run();
+        } finally {
+            commitBatch();
+        }
+    }
+
+    @Override
+    public void beginBatch() {
+        batchDepth.incrementAndGet();
+    }
+
+    @Override
+    public void commitBatch() {
+        int depth = batchDepth.decrementAndGet();
+        if (depth < 0) {
+            batchDepth.incrementAndGet();
+            throw new IllegalStateException("commitBatch called without a matching beginBatch");
+        }
+        if (depth > 0) return;
+
+        List<ListenerList> pending = new ArrayList<>(batchedLists);
+        batchedLists.removeAll(pending);
+        pending.forEach(list -> list.rebuild(busID));
+    }
+
+    @Override
+    public void shutdown() {
+        LOGGER.fatal(EVENTBUS, "EventBus {} shutting down - future events will not be posted.", busID, new Exception("stacktrace"));
+        this.shutdown = true;
+    }
+
+    @Override
+    public void start() {
+        this.shutdown = false;
+    }
+
+    public void registerClass(Class<?> clazz) {
+        Arrays.stream(clazz.getMethods())
+                .filter(method -> Modifier.isStatic(method.getModifiers()))
+                .filter(method -> method.isAnnotationPresent(SubscribeEvent.class))
+                .forEach(method -> registerListener(clazz, method, method));
+
+    }
+
+
+
+    public void registerObject(Object obj) {
+
+    }
+
+    private void registerListener(final Object object, Method method, Method real) {
+        Class<?>[] parameterTy = method.getParameterTypes();
+        if(parameterTy.length != 1) {
+            throw new IllegalArgumentException("Method:" + method + " is an event subscriber but has more than 1 argument");
+        }
+
+        Class<?> eventType = parameterTy[0];
+        if(!Event.class.isAssignableFrom(eventType) && !isEventInterface(eventType)) {
+            throw new IllegalArgumentException("Method: " + method+ " is an event subscriber but takes an argument that is not an event subtype or event interface");
+        }
+
+        register(eventType, object, real);
+    }
+
+    private void register(Class<?> eventType, Object object, Method real) {
+        try {
+            final ASMEventHandler asm = new ASMEventHandler(object, real, IGenericEvent.class.isAssignableFrom(eventType));
+
+            addToListeners(object, eventType, asm, asm.getPriority());
+        } catch (IllegalAccessException | InstantiationException | NoSuchMethodException | InvocationTargetException e) {
+            LOGGER.error(EVENTBUS ,"Error registering event handler: {} {}", eventType, real, e);
+        }
+    }
+
+    private void addToListeners(final Object target, final Class<?> eventType, final IEventListener listener, EventPriority priority) {
+        addToListeners(target, eventType, null, listener, priority);
+    }
+
+    private void addToListeners(final Object target, final Class<?> eventType, final Object key, IEventListener listener, EventPriority priority) {
+        if (failurePolicy != null) {
+            // The bus itself only logs, which the guard already does at a limited rate
+            listener = new GuardedEventListener(this, listener, failurePolicy, exceptionHandler == this ? null : exceptionHandler);
+        }
+        ListenerList list = EventListenerHelper.getListenerList(eventType);
+        boolean deferRebuild = batchDepth.get() > 0;
+        if (key != null) {
+            list.registerKeyed(busID, priority, key, listener, deferRebuild);
+        } else {
+            list.register(busID, priority, listener, deferRebuild);
+        }
+        if (deferRebuild) {
+            batchedLists.add(list);
+            // The batch may have been committed between checking the depth and queueing the list
+            if (batchDepth.get() == 0 && batchedLists.remove(list)) {
+                list.rebuild(busID);
+            }
+        }
+        List<IEventListener> others = listeners.computeIfAbsent(target, k-> Collections.synchronizedList(new ArrayList<>()));
+        others.add(listener);
+    }
+
+
+
+    @Override
+    public void handleException(IEventBus bus, Event event, IEventListener[] listeners, int index, Throwable throwable) {
+        LOGGER.error(EVENTBUS, ()->new EventBusErrorMessage(event, index, listeners, throwable));
+    }
+}
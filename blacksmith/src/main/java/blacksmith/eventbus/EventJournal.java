@@ -0,0 +1,285 @@
+package blacksmith.eventbus;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static blacksmith.eventbus.LogMarkers.EVENTBUS;
+
+/**
+ * Records every event posted on a bus to an append-only, memory mapped journal file, which
+ * {@link EventJournalReplay} can post again against another bus.
+ *
+ * Install with {@link BusBuilder#setPostObserver(IEventPostObserver)}. Only events with a codec registered
+ * through {@link #registerCodec(Class, IEventCodec)} are recorded, others are counted as skipped.
+ *
+ * The payload is encoded before the event is dispatched, so replay posts the event as it was posted rather
+ * than as listeners left it. Whether it was canceled and its {@link Event.Result} are filled in once dispatch
+ * finishes, entries whose post threw stay pending. Each entry holds:
+ * <pre>
+ * int entryLength, long nanos, byte state, byte result, short nameLength, byte[] name, byte[] payload
+ * </pre>
+ * Posting threads reserve space for their entries without locking. The file is written in chunks of
+ * {@link #CHUNK_SIZE} bytes which entries never cross, an entry length of {@link #END_OF_CHUNK} marks the rest of
+ * a chunk as unused, so readers only ever need to map one chunk at a time.
+ */
+public class EventJournal implements IEventPostObserver, Closeable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    static final int MAGIC = 0x424c4b4a;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 8;
+    static final long CHUNK_SIZE = 64L << 20;
+    static final int END_OF_CHUNK = -1;
+    static final int ENTRY_HEADER_SIZE = 4 + 8 + 1 + 1 + 2;
+    private static final int STATE_OFFSET = 12;
+
+    static final byte PENDING = 0;
+    static final byte POSTED = 1;
+    static final byte CANCELED = 2;
+
+    private static final ClassValue<byte[]> CLASS_NAMES = new ClassValue<byte[]>() {
+        @Override
+        protected byte[] computeValue(Class<?> type) {
+            return type.getName().getBytes(StandardCharsets.UTF_8);
+        }
+    };
+    private static final ThreadLocal<ByteBuffer> SCRATCH = ThreadLocal.withInitial(() -> ByteBuffer.allocate(4096));
+
+    private final FileChannel channel;
+    private final Map<Class<?>, IEventCodec<?>> codecs = new ConcurrentHashMap<>();
+    private final Map<Long, MappedByteBuffer> chunks = new ConcurrentHashMap<>();
+    // Entries recorded on each thread whose post has not finished yet, innermost first
+    private final ThreadLocal<ArrayDeque<Pending>> dispatching = ThreadLocal.withInitial(ArrayDeque::new);
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong position = new AtomicLong(HEADER_SIZE);
+    private final AtomicLong entries = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    // Threads writing to a mapped chunk, close waits for them before trimming the file
+    private final AtomicInteger writers = new AtomicInteger();
+    private volatile boolean closed;
+
+    public EventJournal(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        chunk(0).putInt(0, MAGIC).putInt(4, VERSION);
+    }
+
+    public <T extends Event> EventJournal registerCodec(Class<T> eventType, IEventCodec<T> codec) {
+        codecs.put(eventType, codec);
+        return this;
+    }
+
+    @Override
+    public void onPosting(IEventBus bus, Event event) {
+        @SuppressWarnings("unchecked")
+        IEventCodec<Event> codec = (IEventCodec<Event>) codecs.get(event.getClass());
+        if (codec == null) {
+            skipped.incrementAndGet();
+            return;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        ByteBuffer payload = encode(event, codec);
+        if (!beginWrite()) return;
+        try {
+            Pending entry = append(event, nanos, payload);
+            if (entry != null) dispatching.get().push(entry);
+        } finally {
+            writers.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void onPosted(IEventBus bus, Event event) {
+        Pending entry = finish(event);
+        if (entry == null || !beginWrite()) return;
+        try {
+            entry.chunk.put(entry.offset + STATE_OFFSET, event.isCancelable() && event.isCanceled() ? CANCELED : POSTED)
+                    .put(entry.offset + STATE_OFFSET + 1, (byte) event.getResult().ordinal());
+        } finally {
+            writers.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void onPostFailed(IEventBus bus, Event event, Throwable throwable) {
+        finish(event);
+    }
+
+    /**
+     * Removes the event's entry from this thread's dispatching entries, along with any nested entries above it.
+     */
+    @Nullable
+    private Pending finish(Event event) {
+        if (!codecs.containsKey(event.getClass())) return null;
+        ArrayDeque<Pending> stack = dispatching.get();
+        Pending entry = null;
+        for (Pending candidate : stack) {
+            if (candidate.event == event) {
+                entry = candidate;
+                break;
+            }
+        }
+        if (entry == null) return null;
+        while (stack.pop() != entry) {
+            // nested posts which never finished
+        }
+        return entry;
+    }
+
+    private boolean beginWrite() {
+        writers.incrementAndGet();
+        if (closed) {
+            writers.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    @Nullable
+    private Pending append(Event event, long nanos, ByteBuffer payload) {
+        byte[] name = CLASS_NAMES.get(event.getClass());
+        int length = ENTRY_HEADER_SIZE + name.length + payload.remaining();
+        if (length > CHUNK_SIZE - HEADER_SIZE) {
+            LOGGER.warn(EVENTBUS, "Not recording {}, its {} byte entry does not fit in a journal chunk", event.getClass().getName(), length);
+            skipped.incrementAndGet();
+            return null;
+        }
+        MappedByteBuffer chunk;
+        long start;
+        try {
+            start = reserve(length);
+            chunk = chunk(start / CHUNK_SIZE);
+        } catch (IOException e) {
+            LOGGER.error(EVENTBUS, "Failed to extend event journal, recording stopped", e);
+            closed = true;
+            return null;
+        }
+        int offset = (int) (start % CHUNK_SIZE);
+        ByteBuffer out = chunk.duplicate();
+        out.position(offset + 4);
+        out.putLong(nanos)
+                .put(PENDING)
+                .put((byte) event.getResult().ordinal())
+                .putShort((short) name.length)
+                .put(name)
+                .put(payload);
+        // The length goes in last, readers stop at an entry whose length is still zero
+        chunk.putInt(offset, length);
+        entries.incrementAndGet();
+        return new Pending(event, chunk, offset);
+    }
+
+    /**
+     * @return The file position of the space reserved for an entry of the given length
+     */
+    private long reserve(int length) throws IOException {
+        while (true) {
+            long start = position.get();
+            long chunkEnd = (start / CHUNK_SIZE + 1) * CHUNK_SIZE;
+            if (start + length <= chunkEnd) {
+                if (position.compareAndSet(start, start + length)) return start;
+            } else if (position.compareAndSet(start, chunkEnd + length)) {
+                // Readers skip to the next chunk when fewer than four bytes are left
+                if (chunkEnd - start >= 4) chunk(start / CHUNK_SIZE).putInt((int) (start % CHUNK_SIZE), END_OF_CHUNK);
+                return chunkEnd;
+            }
+        }
+    }
+
+    private MappedByteBuffer chunk(long index) throws IOException {
+        MappedByteBuffer chunk = chunks.get(index);
+        if (chunk != null) return chunk;
+        try {
+            chunk = chunks.computeIfAbsent(index, i -> {
+                try {
+                    return channel.map(FileChannel.MapMode.READ_WRITE, i * CHUNK_SIZE, CHUNK_SIZE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        // Entries keep their own chunk for the outcome, only the latest chunks are needed for new entries
+        chunks.keySet().removeIf(i -> i < index - 1);
+        return chunk;
+    }
+
+    private static ByteBuffer encode(Event event, IEventCodec<Event> codec) {
+        ByteBuffer scratch = SCRATCH.get();
+        while (true) {
+            scratch.clear();
+            try {
+                codec.encode(event, scratch);
+                scratch.flip();
+                return scratch;
+            } catch (BufferOverflowException e) {
+                scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+                SCRATCH.set(scratch);
+            }
+        }
+    }
+
+    /**
+     * @return The number of events recorded so far
+     */
+    public long getEntries() {
+        return entries.get();
+    }
+
+    /**
+     * @return The number of posted events not recorded because no codec was registered for them
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Stops recording, waits for entries being written, flushes the journal and trims the file to the
+     * recorded entries.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) return;
+        closed = true;
+        while (writers.get() > 0) {
+            Thread.onSpinWait();
+        }
+        chunks.values().forEach(MappedByteBuffer::force);
+        chunks.clear();
+        try {
+            channel.truncate(position.get());
+        } catch (IOException e) {
+            // Some platforms refuse to truncate a file that is still mapped, readers stop at the zeroed tail
+            LOGGER.debug(EVENTBUS, "Could not trim event journal, leaving its unused tail", e);
+        }
+        channel.close();
+    }
+
+    private static final class Pending {
+        final Event event;
+        final MappedByteBuffer chunk;
+        final int offset;
+
+        Pending(Event event, MappedByteBuffer chunk, int offset) {
+            this.event = event;
+            this.chunk = chunk;
+            this.offset = offset;
+        }
+    }
+}
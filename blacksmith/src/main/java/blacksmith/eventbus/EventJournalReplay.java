@@ -0,0 +1,132 @@
+package blacksmith.eventbus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Posts the events of a journal written by {@link EventJournal} against a bus, either at the pace they
+ * were recorded or as fast as possible.
+ *
+ * Codecs have to be registered for every event class in the journal, entries without one are skipped.
+ * Replayed events whose canceled state or result differs from the recording are counted as diverged, which
+ * shows where changed listeners now behave differently. Entries whose recorded post threw are replayed but
+ * have no outcome to compare.
+ *
+ * The journal is mapped one chunk at a time, so journals of any size can be replayed.
+ */
+public class EventJournalReplay {
+    private final Map<String, IEventCodec<?>> codecs = new HashMap<>();
+
+    public <T extends Event> EventJournalReplay registerCodec(Class<T> eventType, IEventCodec<T> codec) {
+        codecs.put(eventType.getName(), codec);
+        return this;
+    }
+
+    /**
+     * Replays a journal file.
+     *
+     * @param journal The journal to read
+     * @param bus The bus to post the events to
+     * @param realTime If true events are posted with the delays between them that were recorded, otherwise back to back
+     * @return Statistics for the replay
+     */
+    public Stats replay(Path journal, IEventBus bus, boolean realTime) throws IOException {
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long posted = 0, skipped = 0, diverged = 0;
+            final long start = System.nanoTime();
+            chunks:
+            for (long chunkStart = 0; chunkStart < size; chunkStart += EventJournal.CHUNK_SIZE) {
+                MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, Math.min(EventJournal.CHUNK_SIZE, size - chunkStart));
+                if (chunkStart == 0 && (in.remaining() < EventJournal.HEADER_SIZE || in.getInt() != EventJournal.MAGIC || in.getInt() != EventJournal.VERSION)) {
+                    throw new IOException("Not an event journal, or written by an incompatible version: " + journal);
+                }
+                while (in.remaining() >= 4) {
+                    int entryStart = in.position();
+                    int length = in.getInt();
+                    if (length == EventJournal.END_OF_CHUNK) break;
+                    // An unwritten entry or a truncated tail ends the journal
+                    if (length < EventJournal.ENTRY_HEADER_SIZE || entryStart + length > in.limit()) break chunks;
+                    long nanos = in.getLong();
+                    byte state = in.get();
+                    int resultOrdinal = in.get();
+                    int nameLength = in.getShort();
+                    if (resultOrdinal < 0 || resultOrdinal >= Event.Result.values().length || nameLength < 0
+                            || EventJournal.ENTRY_HEADER_SIZE + nameLength > length) break chunks;
+                    Event.Result result = Event.Result.values()[resultOrdinal];
+                    byte[] name = new byte[nameLength];
+                    in.get(name);
+
+                    IEventCodec<?> codec = codecs.get(new String(name, StandardCharsets.UTF_8));
+                    if (codec == null) {
+                        skipped++;
+                        in.position(entryStart + length);
+                        continue;
+                    }
+                    ByteBuffer payload = in.slice();
+                    payload.limit(entryStart + length - in.position());
+                    Event event = codec.decode(payload);
+                    in.position(entryStart + length);
+
+                    if (realTime) {
+                        long wait = nanos - (System.nanoTime() - start);
+                        if (wait > 0) LockSupport.parkNanos(wait);
+                    }
+                    boolean replayCanceled = bus.post(event);
+                    posted++;
+                    if (state != EventJournal.PENDING && (replayCanceled != (state == EventJournal.CANCELED) || event.getResult() != result)) diverged++;
+                }
+            }
+            return new Stats(posted, skipped, diverged, System.nanoTime() - start);
+        }
+    }
+
+    public static final class Stats {
+        private final long posted;
+        private final long skipped;
+        private final long diverged;
+        private final long elapsedNanos;
+
+        private Stats(long posted, long skipped, long diverged, long elapsedNanos) {
+            this.posted = posted;
+            this.skipped = skipped;
+            this.diverged = diverged;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getPosted() {
+            return posted;
+        }
+
+        /**
+         * @return Entries not replayed because no codec was registered for their event class
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return Replayed events whose canceled state or result differed from the recording
+         */
+        public long getDiverged() {
+            return diverged;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{posted=" + posted + ", skipped=" + skipped + ", diverged=" + diverged + ", elapsed=" + elapsedNanos / 1_000_000 + "ms}";
+        }
+    }
+}
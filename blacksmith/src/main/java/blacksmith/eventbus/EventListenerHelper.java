@@ -1,89 +1,155 @@
-package blacksmith.eventbus;
-
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Modifier;
-import java.util.IdentityHashMap;
-import java.util.Map;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
-public class EventListenerHelper {
-    private final static Map<Class<?>, ListenerList> listeners = new IdentityHashMap<>();
-    private static ReadWriteLock lock = new ReentrantReadWriteLock(true);
-    /**
-     * Returns a {@link ListenerList} object that contains all listeners
-     * that are registered to this event class.
-     *
-     * This supports abstract classes that cannot be instantiated.
-     *
-     * Note: this is much slower than the instance method {@link Event#getListenerList()}.
-     * For performance when emitting events, always call that method instead.
-     */
-    public static ListenerList getListenerList(Class<?> eventClass)
-    {
-        return getListenerListInternal(eventClass, false);
-    }
-
-    static ListenerList getListenerListInternal(Class<?> eventClass, boolean fromInstanceCall)
-    {
-        final Lock readLock = lock.readLock();
-        // to read the listener list, let's take the read lock
-        readLock.lock();
-        ListenerList listenerList = listeners.get(eventClass);
-        readLock.unlock();
-        // if there's no entry, we'll end up here
-        if (listenerList == null) {
-            // Let's pre-compute our new listener list value. This will possibly call parents' listener list
-            // evaluations. as such, we need to make sure we don't hold a lock when we do this, otherwise
-            // we could conflict with the class init global lock that is implicitly present
-            listenerList = computeListenerList(eventClass, fromInstanceCall);
-            // having computed a listener list, we'll grab the write lock.
-            // We'll also take the read lock, so we're very clear we have _both_ locks here.
-            final Lock writeLock = lock.writeLock();
-            writeLock.lock();
-            readLock.lock();
-            // insert our computed value if no existing value is present
-            listeners.putIfAbsent(eventClass, listenerList);
-            // get whatever value got stored in the list
-            listenerList = listeners.get(eventClass);
-            // and unlock, and we're done
-            readLock.unlock();
-            writeLock.unlock();
-        }
-        return listenerList;
-    }
-
-    private static ListenerList computeListenerList(Class<?> eventClass, boolean fromInstanceCall)
-    {
-        if (eventClass == Event.class)
-        {
-            return new ListenerList();
-        }
-
-        if (fromInstanceCall || Modifier.isAbstract(eventClass.getModifiers()))
-        {
-            Class<?> superclass = eventClass.getSuperclass();
-            ListenerList parentList = getListenerList(superclass);
-            return new ListenerList(parentList);
-        }
-
-        try
-        {
-            Constructor<?> ctr = eventClass.getConstructor();
-            ctr.setAccessible(true);
-            Event event = (Event) ctr.newInstance();
-            return event.getListenerList();
-        }
-        catch (NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException e)
-        {
-            throw new RuntimeException("Error computing listener list for " + eventClass.getName(), e);
-        }
-    }
-
-    private static void clearAll() {
-        listeners.clear();
-        lock = new ReentrantReadWriteLock(true);
-    }
-}
+package blacksmith.eventbus;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class EventListenerHelper {
+    private final static Map<Class<?>, ListenerList> listeners = new IdentityHashMap<>();
+    private final static ClassValue<Event.ShortCircuit> shortCircuits = new ClassValue<Event.ShortCircuit>() {
+        @Override
+        protected Event.ShortCircuit computeValue(Class<?> type) {
+            return type.getAnnotation(Event.ShortCircuit.class);
+        }
+    };
+    private static ReadWriteLock lock = new ReentrantReadWriteLock(true);
+    /**
+     * Returns a {@link ListenerList} object that contains all listeners
+     * that are registered to this event class.
+     *
+     * This supports abstract classes that cannot be instantiated.
+     *
+     * Note: this is much slower than the instance method {@link Event#getListenerList()}.
+     * For performance when emitting events, always call that method instead.
+     */
+    public static ListenerList getListenerList(Class<?> eventClass)
+    {
+        return getListenerListInternal(eventClass, false);
+    }
+
+    static ListenerList getListenerListInternal(Class<?> eventClass, boolean fromInstanceCall)
+    {
+        final Lock readLock = lock.readLock();
+        // to read the listener list, let's take the read lock
+        readLock.lock();
+        ListenerList listenerList = listeners.get(eventClass);
+        readLock.unlock();
+        // if there's no entry, we'll end up here
+        if (listenerList == null) {
+            // Let's pre-compute our new listener list value. This will possibly call parents' listener list
+            // evaluations. as such, we need to make sure we don't hold a lock when we do this, otherwise
+            // we could conflict with the class init global lock that is implicitly present
+            listenerList = computeListenerList(eventClass, fromInstanceCall);
+            // having computed a listener list, we'll grab the write lock.
+            // We'll also take the read lock, so we're very clear we have _both_ locks here.
+            final Lock writeLock = lock.writeLock();
+            writeLock.lock();
+            readLock.lock();
+            // insert our computed value if no existing value is present
+            listeners.putIfAbsent(eventClass, listenerList);
+            // get whatever value got stored in the list
+            listenerList = listeners.get(eventClass);
+            // and unlock, and we're done
+            readLock.unlock();
+            writeLock.unlock();
+        }
+        return listenerList;
+    }
+
+    /**
+     * Returns a copy of every event class and its listener list computed so far.
+     */
+    static Map<Class<?>, ListenerList> getAllListenerLists()
+    {
+        final Lock readLock = lock.readLock();
+        readLock.lock();
+        try
+        {
+            return new IdentityHashMap<>(listeners);
+        }
+        finally
+        {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the {@link Event.ShortCircuit} settings of an event class, or null if it dispatches to every listener.
+     */
+    @Nullable
+    static Event.ShortCircuit getShortCircuit(Class<?> eventClass)
+    {
+        return shortCircuits.get(eventClass);
+    }
+
+    private static ListenerList computeListenerList(Class<?> eventClass, boolean fromInstanceCall)
+    {
+        if (eventClass == Event.class)
+        {
+            return new ListenerList();
+        }
+
+        if (eventClass.isInterface())
+        {
+            return new ListenerList(null, getInterfaceLists(eventClass, null));
+        }
+
+        if (fromInstanceCall || Modifier.isAbstract(eventClass.getModifiers()))
+        {
+            Class<?> superclass = eventClass.getSuperclass();
+            ListenerList parentList = getListenerList(superclass);
+            return new ListenerList(parentList, getInterfaceLists(eventClass, superclass));
+        }
+
+        try
+        {
+            Constructor<?> ctr = eventClass.getConstructor();
+            ctr.setAccessible(true);
+            Event event = (Event) ctr.newInstance();
+            return event.getListenerList();
+        }
+        catch (NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException e)
+        {
+            throw new RuntimeException("Error computing listener list for " + eventClass.getName(), e);
+        }
+    }
+
+    /**
+     * Collects the listener lists of every interface of the given type, directly or through
+     * super-interfaces, skipping those the superclass already implements since its list covers them.
+     */
+    private static ListenerList[] getInterfaceLists(Class<?> type, @Nullable Class<?> superclass)
+    {
+        Set<Class<?>> interfaces = new LinkedHashSet<>();
+        collectInterfaces(type, interfaces);
+        if (superclass != null)
+        {
+            interfaces.removeIf(iface -> iface.isAssignableFrom(superclass));
+        }
+        return interfaces.stream().map(EventListenerHelper::getListenerList).toArray(ListenerList[]::new);
+    }
+
+    private static void collectInterfaces(Class<?> type, Set<Class<?>> interfaces)
+    {
+        for (Class<?> iface : type.getInterfaces())
+        {
+            if (interfaces.add(iface))
+            {
+                collectInterfaces(iface, interfaces);
+            }
+        }
+    }
+
+    private static void clearAll() {
+        listeners.clear();
+        lock = new ReentrantReadWriteLock(true);
+    }
+}
@@ -0,0 +1,61 @@
+package blacksmith.eventbus;
+
+import java.time.Duration;
+
+/**
+ * Controls how a bus treats listeners that throw, set with {@link BusBuilder#setFailurePolicy(FailurePolicy)}.
+ *
+ * With a policy, an exception thrown by a listener is counted and reported but no longer aborts the post, the
+ * remaining listeners still run. Reports for a listener are rate limited to one per interval, failures in between
+ * are only counted. Optionally a circuit breaker skips a listener after a number of consecutive failures, and
+ * lets a single probe event through once the cooldown has passed to see if it recovered.
+ *
+ * A custom {@link IEventExceptionHandler} set on the {@link BusBuilder} is still called for every failure, with
+ * the failing listener as the only element of the listener array. Per listener counters are available from
+ * {@link IEventBus#getGuardedListeners()}.
+ *
+ * {@link Error}s are not handled and still propagate out of the post.
+ */
+public final class FailurePolicy {
+    private final long reportIntervalNanos;
+    private final int breakerThreshold;
+    private final long breakerCooldownNanos;
+
+    private FailurePolicy(long reportIntervalNanos, int breakerThreshold, long breakerCooldownNanos) {
+        this.reportIntervalNanos = reportIntervalNanos;
+        this.breakerThreshold = breakerThreshold;
+        this.breakerCooldownNanos = breakerCooldownNanos;
+    }
+
+    /**
+     * Reports at most one failure per listener per interval, without a circuit breaker.
+     */
+    public static FailurePolicy rateLimited(Duration reportInterval) {
+        return new FailurePolicy(reportInterval.toNanos(), 0, 0);
+    }
+
+    /**
+     * Returns a copy of this policy which stops invoking a listener after {@code consecutiveFailures} failures
+     * in a row, until the cooldown has passed.
+     */
+    public FailurePolicy withCircuitBreaker(int consecutiveFailures, Duration cooldown) {
+        if (consecutiveFailures < 1) throw new IllegalArgumentException("Circuit breaker threshold must be at least 1");
+        return new FailurePolicy(reportIntervalNanos, consecutiveFailures, cooldown.toNanos());
+    }
+
+    long getReportIntervalNanos() {
+        return reportIntervalNanos;
+    }
+
+    boolean hasCircuitBreaker() {
+        return breakerThreshold > 0;
+    }
+
+    int getBreakerThreshold() {
+        return breakerThreshold;
+    }
+
+    long getBreakerCooldownNanos() {
+        return breakerCooldownNanos;
+    }
+}
@@ -0,0 +1,94 @@
+package blacksmith.eventbus;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An event viewing a batch of fixed size records packed into a reusable {@link ByteBuffer}, for high rate
+ * streams where allocating an event per occurrence is too costly.
+ *
+ * Subclasses declare their record layout through accessors reading at {@link #offset()}, for example
+ * {@code float x() { return buffer().getFloat(offset()); }}. The same instance is re-wrapped and posted for
+ * every batch, each listener walks the records with {@link #moveTo(int)}:
+ *
+ * <pre>
+ * bus.post(particles.wrap(buffer, 0, count));
+ *
+ * void onParticles(ParticleEvent e) {
+ *     for (int i = 0; i &lt; e.size(); i++) {
+ *         e.moveTo(i);
+ *         ...
+ *     }
+ * }
+ * </pre>
+ *
+ * Cancellation, result and phase apply to the batch as a whole. The instance is not thread safe, and listeners
+ * must not keep it or the buffer past the post.
+ */
+public abstract class FlyweightEvent extends Event {
+    private final int stride;
+    private ByteBuffer buffer;
+    private int base;
+    private int count;
+    private int offset;
+
+    /**
+     * @param stride The size of one record in bytes
+     */
+    protected FlyweightEvent(int stride) {
+        if (stride <= 0) throw new IllegalArgumentException("Record stride must be positive, was " + stride);
+        this.stride = stride;
+    }
+
+    /**
+     * Points this event at a new batch of records and clears its cancellation, result and phase.
+     *
+     * @param buffer Buffer holding the records, usually direct
+     * @param position Byte position of the first record
+     * @param count Number of records in the batch
+     * @return this, for posting
+     */
+    public FlyweightEvent wrap(ByteBuffer buffer, int position, int count) {
+        if (position < 0 || count < 0 || position + (long) count * stride > buffer.limit()) {
+            throw new IndexOutOfBoundsException("Batch of " + count + " records at " + position + " exceeds buffer limit " + buffer.limit());
+        }
+        this.buffer = buffer;
+        this.base = position;
+        this.count = count;
+        this.offset = position;
+        resetState();
+        return this;
+    }
+
+    /**
+     * @return The number of records in the current batch
+     */
+    public int size() {
+        return count;
+    }
+
+    public int stride() {
+        return stride;
+    }
+
+    /**
+     * Moves the cursor to a record of the current batch.
+     */
+    public void moveTo(int index) {
+        if (index < 0 || index >= count) throw new IndexOutOfBoundsException("Record " + index + " of " + count);
+        offset = base + index * stride;
+    }
+
+    /**
+     * @return The buffer the records are read from, accessors use its byte order
+     */
+    protected ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return Byte position of the record under the cursor
+     */
+    protected int offset() {
+        return offset;
+    }
+}
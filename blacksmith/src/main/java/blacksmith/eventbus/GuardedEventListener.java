@@ -0,0 +1,133 @@
+package blacksmith.eventbus;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static blacksmith.eventbus.LogMarkers.EVENTBUS;
+
+/**
+ * Wraps a listener registered on a bus with a {@link FailurePolicy}, counting and reporting its failures and
+ * skipping it while its circuit breaker is open. The guarded listeners of a bus, and their failure counters, are
+ * returned by {@link IEventBus#getGuardedListeners()}.
+ *
+ * The success path only reads two volatile fields, failures that are not reported do not allocate.
+ */
+public final class GuardedEventListener implements IEventListener {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    private final IEventBus bus;
+    private final IEventListener delegate;
+    private final FailurePolicy policy;
+    @Nullable
+    private final IEventExceptionHandler exceptionHandler;
+    private final AtomicLong totalFailures = new AtomicLong();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    // System.nanoTime() until which the breaker is open, 0 while closed
+    private final AtomicLong openUntil = new AtomicLong();
+    private long lastReport;
+    private long suppressed;
+
+    GuardedEventListener(IEventBus bus, IEventListener delegate, FailurePolicy policy, @Nullable IEventExceptionHandler exceptionHandler) {
+        this.bus = bus;
+        this.delegate = delegate;
+        this.policy = policy;
+        this.exceptionHandler = exceptionHandler;
+    }
+
+    @Override
+    public void invoke(Event event) {
+        long until = openUntil.get();
+        if (until != 0) {
+            long now = System.nanoTime();
+            if (now - until < 0) return;
+            // Re-arming the breaker claims the probe, concurrent posts see it open again and skip
+            if (!openUntil.compareAndSet(until, now + policy.getBreakerCooldownNanos() | 1)) return;
+        }
+        try {
+            delegate.invoke(event);
+        } catch (Exception e) {
+            onFailure(event, e);
+            return;
+        }
+        if (consecutiveFailures.get() != 0) {
+            consecutiveFailures.set(0);
+            if (until != 0) {
+                openUntil.set(0);
+                LOGGER.info(EVENTBUS, "Listener {} recovered, closing its circuit breaker", listenerName());
+            }
+        }
+    }
+
+    private void onFailure(Event event, Exception exception) {
+        totalFailures.incrementAndGet();
+        int failures = consecutiveFailures.incrementAndGet();
+        if (policy.hasCircuitBreaker() && failures >= policy.getBreakerThreshold()) {
+            long until = System.nanoTime() + policy.getBreakerCooldownNanos() | 1;
+            if (openUntil.getAndSet(until) == 0) {
+                LOGGER.warn(EVENTBUS, "Listener {} failed {} times in a row, skipping it for {} ms", listenerName(), failures, policy.getBreakerCooldownNanos() / 1_000_000);
+            }
+        }
+        if (exceptionHandler != null) {
+            exceptionHandler.handleException(bus, event, new IEventListener[] { this }, 0, exception);
+        }
+        report(event, exception);
+    }
+
+    private void report(Event event, Exception exception) {
+        long now = System.nanoTime();
+        long skipped;
+        synchronized (this) {
+            if (lastReport != 0 && now - lastReport < policy.getReportIntervalNanos()) {
+                suppressed++;
+                return;
+            }
+            skipped = suppressed;
+            suppressed = 0;
+            lastReport = now;
+        }
+        LOGGER.error(EVENTBUS, "Listener {} threw handling {} ({} failures in total, {} not reported since the last report)",
+                listenerName(), event.getClass().getName(), totalFailures.get(), skipped, exception);
+    }
+
+    /**
+     * @return The listener this guards
+     */
+    public IEventListener getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return How many times the wrapped listener has thrown
+     */
+    public long getTotalFailures() {
+        return totalFailures.get();
+    }
+
+    /**
+     * @return How many times the wrapped listener has thrown since it last handled an event
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    /**
+     * @return true while the circuit breaker is skipping the wrapped listener, or a probe is in flight
+     */
+    public boolean isOpen() {
+        return openUntil.get() != 0;
+    }
+
+    @Override
+    public String listenerName() {
+        return delegate.listenerName();
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+}
@@ -0,0 +1,178 @@
+package blacksmith.eventbus;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.objectweb.asm.Type;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static blacksmith.eventbus.LogMarkers.EVENTBUS;
+
+/**
+ * On disk cache of the listener classes generated by {@link ASMEventHandler}.
+ *
+ * Enabled by pointing {@code eventbus.handlerCache} at a directory. The whole cache file is read once on first
+ * use, and rewritten on shutdown with the entries used or generated during the run.
+ *
+ * Entries are keyed by the subscriber method and a hash of its declaring class file, so recompiling a subscriber
+ * class makes its old entries miss and they are dropped on the next rewrite.
+ */
+final class HandlerBytecodeCache {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final int MAGIC = 0x424c4b48;
+    // Bump whenever ASMEventHandler changes the code it generates
+    private static final int FORMAT_VERSION = 2;
+
+    @Nullable
+    static final HandlerBytecodeCache INSTANCE = create(System.getProperty("eventbus.handlerCache"));
+    // Hash of each subscriber class file, shared by all its handler methods, empty if the file cannot be read
+    private static final ClassValue<String> CLASS_DIGESTS = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            return digestClassFile(type);
+        }
+    };
+
+    private final Path file;
+    private final Map<String, Entry> loaded = new ConcurrentHashMap<>();
+    private final Map<String, Entry> live = new ConcurrentHashMap<>();
+    private volatile boolean dirty = false;
+
+    private HandlerBytecodeCache(Path file) {
+        this.file = file;
+    }
+
+    @Nullable
+    private static HandlerBytecodeCache create(@Nullable String directory) {
+        if (directory == null) return null;
+        HandlerBytecodeCache cache = new HandlerBytecodeCache(Paths.get(directory).resolve("handlers.bin"));
+        cache.load();
+        Runtime.getRuntime().addShutdownHook(new Thread(cache::save, "EventBus handler cache writer"));
+        return cache;
+    }
+
+    /**
+     * @return The cache key for a subscriber method, or null if its class file cannot be read
+     */
+    @Nullable
+    static String keyOf(Method method) {
+        Class<?> owner = method.getDeclaringClass();
+        String digest = CLASS_DIGESTS.get(owner);
+        if (digest.isEmpty()) return null;
+        return owner.getName() + '#' + method.getName() + Type.getMethodDescriptor(method) + '@' + digest;
+    }
+
+    /**
+     * @return The hex SHA-256 of a cache key, unique enough to name the class generated for it
+     */
+    static String digestOf(String key) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String digestClassFile(Class<?> owner) {
+        String resource = Type.getInternalName(owner) + ".class";
+        ClassLoader loader = owner.getClassLoader() != null ? owner.getClassLoader() : ClassLoader.getSystemClassLoader();
+        try (InputStream in = loader.getResourceAsStream(resource)) {
+            if (in == null) return "";
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return toHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return "";
+        }
+    }
+
+    @Nullable
+    Entry get(String key) {
+        Entry entry = loaded.get(key);
+        if (entry != null) live.put(key, entry);
+        return entry;
+    }
+
+    void put(String key, String className, byte[] bytes) {
+        live.put(key, new Entry(className, bytes));
+        dirty = true;
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(file)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                LOGGER.debug(EVENTBUS, "Ignoring handler cache {} written by a different version", file);
+                return;
+            }
+            int count = in.readInt();
+            for (int x = 0; x < count; x++) {
+                String key = in.readUTF();
+                String className = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                loaded.put(key, new Entry(className, bytes));
+            }
+            LOGGER.debug(EVENTBUS, "Loaded {} cached event handlers from {}", count, file);
+        } catch (IOException e) {
+            LOGGER.warn(EVENTBUS, "Failed to read event handler cache {}, it will be regenerated", file, e);
+            loaded.clear();
+        }
+    }
+
+    private void save() {
+        // Nothing new was generated and nothing went stale, the file on disk is still accurate
+        if (!dirty && live.size() == loaded.size()) return;
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), "handlers", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(live.size());
+                for (Map.Entry<String, Entry> entry : live.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue().className);
+                    out.writeInt(entry.getValue().bytes.length);
+                    out.write(entry.getValue().bytes);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn(EVENTBUS, "Failed to write event handler cache {}", file, e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    static final class Entry {
+        final String className;
+        final byte[] bytes;
+
+        private Entry(String className, byte[] bytes) {
+            this.className = className;
+            this.bytes = bytes;
+        }
+    }
+}
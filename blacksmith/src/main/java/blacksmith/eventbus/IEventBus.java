@@ -1,161 +1,295 @@
-package blacksmith.eventbus;
-
-import blacksmith.eventbus.EventBus;
-import java.util.function.Consumer;
-
-public interface IEventBus {
-    /**
-     * Register an instance object or a Class, and add listeners for all {@link SubscribeEvent} annotated methods
-     * found there.
-     *
-     * Depending on what is passed as an argument, different listener creation behaviour is performed.
-     *
-     * <dl>
-     *     <dt>Object Instance</dt>
-     *     <dd>Scanned for <em>non-static</em> methods annotated with {@link SubscribeEvent} and creates listeners for
-     *     each method found.</dd>
-     *     <dt>Class Instance</dt>
-     *     <dd>Scanned for <em>static</em> methods annotated with {@link SubscribeEvent} and creates listeners for
-     *     each method found.</dd>
-     * </dl>
-     *
-     * @param target Either a {@link Class} instance or an arbitrary object, for scanning and event listener creation
-     */
-    void register(Object target);
-
-    /**
-     * Add a consumer listener with default {@link EventPriority#NORMAL} and not recieving cancelled events.
-     *
-     * @param consumer Callback to invoke when a matching event is received
-     * @param <T> The {@link Event} subclass to listen for
-     */
-    <T extends Event> void addListener(Consumer<T> consumer);
-
-    /**
-     * Add a consumer listener with the specified {@link EventPriority} and not receiving cancelled events.
-     *
-     * @param priority {@link EventPriority} for this listener
-     * @param consumer Callback to invoke when a matching event is received
-     * @param <T> The {@link Event} subclass to listen for
-     */
-    <T extends Event> void addListener(EventPriority priority, Consumer<T> consumer);
-
-    /**
-     * Add a consumer listener with the specified {@link EventPriority} and potentially cancelled events.
-     *
-     * @param priority {@link EventPriority} for this listener
-     * @param receiveCancelled Indicate if this listener should receive events that have been {@link Cancelable} cancelled
-     * @param consumer Callback to invoke when a matching event is received
-     * @param <T> The {@link Event} subclass to listen for
-     */
-    <T extends Event> void addListener(EventPriority priority, boolean receiveCancelled, Consumer<T> consumer);
-
-    /**
-     * Add a consumer listener with the specified {@link EventPriority} and potentially cancelled events.
-     *
-     * Use this method when one of the other methods fails to determine the concrete {@link Event} subclass that is
-     * intended to be subscribed to.
-     *
-     * @param priority {@link EventPriority} for this listener
-     * @param receiveCancelled Indicate if this listener should receive events that have been {@link Cancelable} cancelled
-     * @param eventType The concrete {@link Event} subclass to subscribe to
-     * @param consumer Callback to invoke when a matching event is received
-     * @param <T> The {@link Event} subclass to listen for
-     */
-    <T extends Event> void addListener(EventPriority priority, boolean receiveCancelled, Class<T> eventType, Consumer<T> consumer);
-
-    /**
-     * Add a consumer listener for a {@link GenericEvent} subclass, filtered to only be called for the specified
-     * filter {@link Class}.
-     *
-     * @param genericClassFilter A {@link Class} which the {@link GenericEvent} should be filtered for
-     * @param consumer Callback to invoke when a matching event is received
-     * @param <T> The {@link GenericEvent} subclass to listen for
-     * @param <F> The {@link Class} to filter the {@link GenericEvent} for
-     */
-    <T extends GenericEvent<? extends F>, F> void addGenericListener(Class<F> genericClassFilter, Consumer<T> consumer);
-
-    /**
-     * Add a consumer listener with the specified {@link EventPriority} and not receiving cancelled events,
-     * for a {@link GenericEvent} subclass, filtered to only be called for the specified
-     * filter {@link Class}.
-     *
-     * @param genericClassFilter A {@link Class} which the {@link GenericEvent} should be filtered for
-     * @param priority {@link EventPriority} for this listener
-     * @param consumer Callback to invoke when a matching event is received
-     * @param <T> The {@link GenericEvent} subclass to listen for
-     * @param <F> The {@link Class} to filter the {@link GenericEvent} for
-     */
-    <T extends GenericEvent<? extends F>, F> void addGenericListener(Class<F> genericClassFilter, EventPriority priority, Consumer<T> consumer);
-
-    /**
-     * Add a consumer listener with the specified {@link EventPriority} and potentially cancelled events,
-     * for a {@link GenericEvent} subclass, filtered to only be called for the specified
-     * filter {@link Class}.
-     *
-     * @param genericClassFilter A {@link Class} which the {@link GenericEvent} should be filtered for
-     * @param priority {@link EventPriority} for this listener
-     * @param receiveCancelled Indicate if this listener should receive events that have been {@link Cancelable} cancelled
-     * @param consumer Callback to invoke when a matching event is received
-     * @param <T> The {@link GenericEvent} subclass to listen for
-     * @param <F> The {@link Class} to filter the {@link GenericEvent} for
-     */
-    <T extends GenericEvent<? extends F>, F> void addGenericListener(Class<F> genericClassFilter, EventPriority priority, boolean receiveCancelled, Consumer<T> consumer);
-
-    /**
-     * Add a consumer listener with the specified {@link EventPriority} and potentially cancelled events,
-     * for a {@link GenericEvent} subclass, filtered to only be called for the specified
-     * filter {@link Class}.
-     * Use this method when one of the other methods fails to determine the concrete {@link GenericEvent} subclass that is
-     * intended to be subscribed to.
-     *
-     * @param genericClassFilter A {@link Class} which the {@link GenericEvent} should be filtered for
-     * @param priority {@link EventPriority} for this listener
-     * @param receiveCancelled Indicate if this listener should receive events that have been {@link Cancelable} cancelled
-     * @param eventType The concrete {@link GenericEvent} subclass to subscribe to
-     * @param consumer Callback to invoke when a matching event is received
-     * @param <T> The {@link GenericEvent} subclass to listen for
-     * @param <F> The {@link Class} to filter the {@link GenericEvent} for
-     */
-    <T extends GenericEvent<? extends F>, F> void addGenericListener(Class<F> genericClassFilter, EventPriority priority, boolean receiveCancelled, Class<T> eventType, Consumer<T> consumer);
-
-    /**
-     * Unregister the supplied listener from this EventBus.
-     *
-     * Removes all listeners from events.
-     *
-     * NOTE: Consumers can be stored in a variable if unregistration is required for the Consumer.
-     *
-     * @param object The object, {@link Class} or {@link Consumer} to unsubscribe.
-     */
-    void unregister(Object object);
-
-    /**
-     * Submit the event for dispatch to appropriate listeners
-     *
-     * @param event The event to dispatch to listeners
-     * @return true if the event was {@link Cancelable} cancelled
-     */
-    boolean post(Event event);
-
-    /**
-     * Submit the event for dispatch to listeners. The invoke wrapper allows for
-     * wrap handling of the actual dispatch, to allow for monitoring of individual event
-     * dispatch
-     *
-     * @param event The event to dispatch to listeners
-     * @param wrapper A wrapper function to handle actual dispatch
-     * @return true if the event was {@link Cancelable} cancelled
-     */
-    boolean post(Event event, IEventBusInvokeDispatcher wrapper);
-
-    /**
-     * Shuts down this event bus.
-     *
-     * No future events will be fired on this event bus, so any call to {@link #post(Event)} will be a no op after this method has been invoked
-     */
-    void shutdown();
-
-
-    void start();
-}
+package blacksmith.eventbus;
+
+import blacksmith.eventbus.EventBus;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+public interface IEventBus {
+    /**
+     * Register an instance object or a Class, and add listeners for all {@link SubscribeEvent} annotated methods
+     * found there.
+     *
+     * Depending on what is passed as an argument, different listener creation behaviour is performed.
+     *
+     * <dl>
+     *     <dt>Object Instance</dt>
+     *     <dd>Scanned for <em>non-static</em> methods annotated with {@link SubscribeEvent} and creates listeners for
+     *     each method found.</dd>
+     *     <dt>Class Instance</dt>
+     *     <dd>Scanned for <em>static</em> methods annotated with {@link SubscribeEvent} and creates listeners for
+     *     each method found.</dd>
+     * </dl>
+     *
+     * @param target Either a {@link Class} instance or an arbitrary object, for scanning and event listener creation
+     */
+    void register(Object target);
+
+    /**
+     * Add a consumer listener with default {@link EventPriority#NORMAL} and not recieving cancelled events.
+     *
+     * @param consumer Callback to invoke when a matching event is received
+     * @param <T> The {@link Event} subclass to listen for
+     */
+    <T extends Event> void addListener(Consumer<T> consumer);
+
+    /**
+     * Add a consumer listener with the specified {@link EventPriority} and not receiving cancelled events.
+     *
+     * @param priority {@link EventPriority} for this listener
+     * @param consumer Callback to invoke when a matching event is received
+     * @param <T> The {@link Event} subclass to listen for
+     */
+    <T extends Event> void addListener(EventPriority priority, Consumer<T> consumer);
+
+    /**
+     * Add a consumer listener with the specified {@link EventPriority} and potentially cancelled events.
+     *
+     * @param priority {@link EventPriority} for this listener
+     * @param receiveCancelled Indicate if this listener should receive events that have been {@link Cancelable} cancelled
+     * @param consumer Callback to invoke when a matching event is received
+     * @param <T> The {@link Event} subclass to listen for
+     */
+    <T extends Event> void addListener(EventPriority priority, boolean receiveCancelled, Consumer<T> consumer);
+
+    /**
+     * Add a consumer listener with the specified {@link EventPriority} and potentially cancelled events.
+     *
+     * Use this method when one of the other methods fails to determine the concrete {@link Event} subclass that is
+     * intended to be subscribed to.
+     *
+     * @param priority {@link EventPriority} for this listener
+     * @param receiveCancelled Indicate if this listener should receive events that have been {@link Cancelable} cancelled
+     * @param eventType The concrete {@link Event} subclass to subscribe to
+     * @param consumer Callback to invoke when a matching event is received
+     * @param <T> The {@link Event} subclass to listen for
+     */
+    <T extends Event> void addListener(EventPriority priority, boolean receiveCancelled, Class<T> eventType, Consumer<T> consumer);
+
+    /**
+     * Add a consumer listener for a {@link GenericEvent} subclass, filtered to only be called for the specified
+     * filter {@link Class}.
+     *
+     * @param genericClassFilter A {@link Class} which the {@link GenericEvent} should be filtered for
+     * @param consumer Callback to invoke when a matching event is received
+     * @param <T> The {@link GenericEvent} subclass to listen for
+     * @param <F> The {@link Class} to filter the {@link GenericEvent} for
+     */
+    <T extends GenericEvent<? extends F>, F> void addGenericListener(Class<F> genericClassFilter, Consumer<T> consumer);
+
+    /**
+     * Add a consumer listener with the specified {@link EventPriority} and not receiving cancelled events,
+     * for a {@link GenericEvent} subclass, filtered to only be called for the specified
+     * filter {@link Class}.
+     *
+     * @param genericClassFilter A {@link Class} which the {@link GenericEvent} should be filtered for
+     * @param priority {@link EventPriority} for this listener
+     * @param consumer Callback to invoke when a matching event is received
+     * @param <T> The {@link GenericEvent} subclass to listen for
+     * @param <F> The {@link Class} to filter the {@link GenericEvent} for
+     */
+    <T extends GenericEvent<? extends F>, F> void addGenericListener(Class<F> genericClassFilter, EventPriority priority, Consumer<T> consumer);
+
+    /**
+     * Add a consumer listener with the specified {@link EventPriority} and potentially cancelled events,
+     * for a {@link GenericEvent} subclass, filtered to only be called for the specified
+     * filter {@link Class}.
+     *
+     * @param genericClassFilter A {@link Class} which the {@link GenericEvent} should be filtered for
+     * @param priority {@link EventPriority} for this listener
+     * @param receiveCancelled Indicate if this listener should receive events that have been {@link Cancelable} cancelled
+     * @param consumer Callback to invoke when a matching event is received
+     * @param <T> The {@link GenericEvent} subclass to listen for
+     * @param <F> The {@link Class} to filter the {@link GenericEvent} for
+     */
+    <T extends GenericEvent<? extends F>, F> void addGenericListener(Class<F> genericClassFilter, EventPriority priority, boolean receiveCancelled, Consumer<T> consumer);
+
+    /**
+     * Add a consumer listener with the specified {@link EventPriority} and potentially cancelled events,
+     * for a {@link GenericEvent} subclass, filtered to only be called for the specified
+     * filter {@link Class}.
+     * Use this method when one of the other methods fails to determine the concrete {@link GenericEvent} subclass that is
+     * intended to be subscribed to.
+     *
+     * @param genericClassFilter A {@link Class} which the {@link GenericEvent} should be filtered for
+     * @param priority {@link EventPriority} for this listener
+     * @param receiveCancelled Indicate if this listener should receive events that have been {@link Cancelable} cancelled
+     * @param eventType The concrete {@link GenericEvent} subclass to subscribe to
+     * @param consumer Callback to invoke when a matching event is received
+     * @param <T> The {@link GenericEvent} subclass to listen for
+     * @param <F> The {@link Class} to filter the {@link GenericEvent} for
+     */
+    <T extends GenericEvent<? extends F>, F> void addGenericListener(Class<F> genericClassFilter, EventPriority priority, boolean receiveCancelled, Class<T> eventType, Consumer<T> consumer);
+
+    /**
+     * Add a consumer listener with default {@link EventPriority#NORMAL} and not receiving cancelled events,
+     * which is only called for events whose {@link IKeyedEvent#getEventKey()} equals the given key.
+     *
+     * @param eventType The concrete {@link Event} subclass to subscribe to
+     * @param key The key to subscribe to
+     * @param consumer Callback to invoke when a matching event is received
+     * @param <T> The {@link IKeyedEvent} subclass to listen for
+     * @param <K> The key type of the event
+     */
+    <T extends Event & IKeyedEvent<K>, K> void addKeyedListener(Class<T> eventType, K key, Consumer<T> consumer);
+
+    /**
+     * Add a consumer listener with the specified {@link EventPriority} and potentially cancelled events,
+     * which is only called for events whose {@link IKeyedEvent#getEventKey()} equals the given key.
+     *
+     * Keyed listeners are indexed by key, posting only visits the listeners for the event's key and the
+     * unkeyed listeners, still in priority order.
+     *
+     * @param priority {@link EventPriority} for this listener
+     * @param receiveCancelled Indicate if this listener should receive events that have been {@link Cancelable} cancelled
+     * @param eventType The concrete {@link Event} subclass to subscribe to
+     * @param key The key to subscribe to
+     * @param consumer Callback to invoke when a matching event is received
+     * @param <T> The {@link IKeyedEvent} subclass to listen for
+     * @param <K> The key type of the event
+     */
+    <T extends Event & IKeyedEvent<K>, K> void addKeyedListener(EventPriority priority, boolean receiveCancelled, Class<T> eventType, K key, Consumer<T> consumer);
+
+    /**
+     * Add a consumer listener for every event implementing the given interface.
+     *
+     * The interface's listeners are merged into the dispatch table of each implementing event class,
+     * so posting costs the same as for listeners registered on a superclass.
+     *
+     * @param priority {@link EventPriority} for this listener
+     * @param receiveCancelled Indicate if this listener should receive events that have been {@link Cancelable} cancelled
+     * @param eventInterface The interface to subscribe to, must extend {@link IEventInterface} or the bus's marker type
+     * @param consumer Callback to invoke when a matching event is received
+     * @param <T> The interface type to listen for
+     */
+    <T> void addInterfaceListener(EventPriority priority, boolean receiveCancelled, Class<T> eventInterface, Consumer<T> consumer);
+
+    /**
+     * Unregister the supplied listener from this EventBus.
+     *
+     * Removes all listeners from events.
+     *
+     * NOTE: Consumers can be stored in a variable if unregistration is required for the Consumer.
+     *
+     * @param object The object, {@link Class} or {@link Consumer} to unsubscribe.
+     */
+    void unregister(Object object);
+
+    /**
+     * Submit the event for dispatch to appropriate listeners
+     *
+     * @param event The event to dispatch to listeners
+     * @return true if the event was {@link Cancelable} cancelled
+     */
+    boolean post(Event event);
+
+    /**
+     * Submit the event for dispatch to listeners. The invoke wrapper allows for
+     * wrap handling of the actual dispatch, to allow for monitoring of individual event
+     * dispatch
+     *
+     * @param event The event to dispatch to listeners
+     * @param wrapper A wrapper function to handle actual dispatch
+     * @return true if the event was {@link Cancelable} cancelled
+     */
+    boolean post(Event event, IEventBusInvokeDispatcher wrapper);
+
+    /**
+     * Submit the event for dispatch and return its {@link Event.Result}.
+     *
+     * For events marked {@link Event.ShortCircuit} dispatch stops at the first listener that decides a
+     * non-default result, so the returned value is that first decision.
+     *
+     * @param event The event to dispatch to listeners
+     * @return The result of the event after dispatch
+     */
+    Event.Result postForResult(Event event);
+
+    /**
+     * Submit an event for dispatch, only constructing it if this bus has listeners for its type.
+     *
+     * Use this for events which are expensive to build and frequently have nobody listening.
+     *
+     * @param eventType The class of the event the factory produces
+     * @param factory Supplier creating the event, not called if there are no listeners
+     * @param <T> The {@link Event} subclass to post
+     * @return true if the event was {@link Cancelable} cancelled, false if it was not built
+     */
+    <T extends Event> boolean post(Class<T> eventType, Supplier<? extends T> factory);
+
+    /**
+     * Check if any listeners on this bus would receive an event of the given type, including listeners
+     * registered for its parent event types.
+     *
+     * @param eventType The {@link Event} subclass to check
+     * @return true if posting the event would invoke at least one listener
+     */
+    boolean hasListeners(Class<? extends Event> eventType);
+
+    /**
+     * Returns the number of events posted to this bus which had no listeners, keyed by event class.
+     *
+     * Useful for finding producers which build events that nothing consumes.
+     *
+     * @return An immutable snapshot of the dead event counters
+     */
+    Map<Class<? extends Event>, Long> getDeadEventCounts();
+
+    /**
+     * Returns the currently registered listeners of this bus wrapped by its {@link FailurePolicy}, to read their
+     * per listener failure counters.
+     *
+     * @return An immutable list, empty if the bus was built without a failure policy
+     */
+    List<GuardedEventListener> getGuardedListeners();
+
+    /**
+     * Capture the listeners currently registered on this bus, with per priority counts, listener names,
+     * dispatch table rebuild counts and estimated memory use.
+     *
+     * Only short per-list locks are taken, so this is suitable for periodic polling from a monitoring thread.
+     *
+     * @return An immutable snapshot of this bus
+     */
+    BusSnapshot snapshot();
+
+    /**
+     * Run a block of registrations as a single batch.
+     *
+     * Listener caches touched by the batch are rebuilt once when the block completes, instead of
+     * after every registration. Equivalent to calling {@link #beginBatch()}, running the block and
+     * then {@link #commitBatch()}, even if the block throws.
+     *
+     * @param registrations Code performing {@link #register(Object)} and {@code addListener} calls
+     */
+    void batch(Runnable registrations);
+
+    /**
+     * Start a registration batch. Listeners added until the matching {@link #commitBatch()} are
+     * recorded immediately, but are not visible to {@link #post(Event)} until the batch is committed.
+     *
+     * Batches may be nested, only the outermost commit triggers the rebuild. Registrations made from other
+     * threads while a batch is open are deferred along with it.
+     */
+    void beginBatch();
+
+    /**
+     * Finish a registration batch started with {@link #beginBatch()}.
+     *
+     * Every listener list touched by the batch is rebuilt exactly once, in parallel across event types.
+     *
+     * @throws IllegalStateException if no batch is open
+     */
+    void commitBatch();
+
+    /**
+     * Shuts down this event bus.
+     *
+     * No future events will be fired on this event bus, so any call to {@link #post(Event)} will be a no op after this method has been invoked
+     */
+    void shutdown();
+
+
+    void start();
+}
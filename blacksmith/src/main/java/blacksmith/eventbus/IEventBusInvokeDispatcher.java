@@ -1,5 +1,5 @@
-package blacksmith.eventbus;
-
-public interface IEventBusInvokeDispatcher {
-    void invoke(IEventListener listener, Event event);
-}
+package blacksmith.eventbus;
+
+public interface IEventBusInvokeDispatcher {
+    void invoke(IEventListener listener, Event event);
+}
@@ -0,0 +1,21 @@
+package blacksmith.eventbus;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts events to and from a compact binary form, used by {@link EventJournal}.
+ *
+ * @param <T> The event type handled by this codec
+ */
+public interface IEventCodec<T extends Event> {
+    /**
+     * Writes the event's payload at the buffer's position, throwing {@link java.nio.BufferOverflowException}
+     * if it does not fit.
+     */
+    void encode(T event, ByteBuffer out);
+
+    /**
+     * Creates a new event from a payload written by {@link #encode(Event, ByteBuffer)}.
+     */
+    T decode(ByteBuffer in);
+}
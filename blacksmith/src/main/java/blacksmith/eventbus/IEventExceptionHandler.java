@@ -1,5 +1,5 @@
-package blacksmith.eventbus;
-
-public interface IEventExceptionHandler {
-    void handleException(IEventBus bus, Event event, IEventListener[] listeners, int index, Throwable throwable);
-}
+package blacksmith.eventbus;
+
+public interface IEventExceptionHandler {
+    void handleException(IEventBus bus, Event event, IEventListener[] listeners, int index, Throwable throwable);
+}
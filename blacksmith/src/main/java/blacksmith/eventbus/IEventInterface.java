@@ -0,0 +1,9 @@
+package blacksmith.eventbus;
+
+/**
+ * Marks an interface as an event interface which listeners can subscribe to, see
+ * {@link IEventBus#addInterfaceListener}. On a bus whose marker type is an interface, interfaces extending the
+ * marker type are event interfaces as well.
+ */
+public interface IEventInterface {
+}
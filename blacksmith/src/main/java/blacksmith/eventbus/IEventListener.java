@@ -1,9 +1,9 @@
-package blacksmith.eventbus;
-
-public interface IEventListener {
-    void invoke(Event event);
-
-    default String listenerName() {
-        return getClass().getName();
-    }
-}
+package blacksmith.eventbus;
+
+public interface IEventListener {
+    void invoke(Event event);
+
+    default String listenerName() {
+        return getClass().getName();
+    }
+}
@@ -0,0 +1,24 @@
+package blacksmith.eventbus;
+
+/**
+ * Notified around the dispatch of each event posted to a bus.
+ *
+ * Set through {@link BusBuilder#setPostObserver(IEventPostObserver)}. Called on the posting thread, so
+ * implementations should be quick. Not called for posts to a shut down bus.
+ */
+public interface IEventPostObserver {
+    /**
+     * Called before any listener sees the event, so it is observed exactly as it was posted.
+     */
+    default void onPosting(IEventBus bus, Event event) {}
+
+    /**
+     * Called once the event has been dispatched to every listener.
+     */
+    void onPosted(IEventBus bus, Event event);
+
+    /**
+     * Called instead of {@link #onPosted} when a listener threw, before the exception is rethrown.
+     */
+    default void onPostFailed(IEventBus bus, Event event, Throwable throwable) {}
+}
@@ -1,7 +1,7 @@
-package blacksmith.eventbus;
-
-import java.lang.reflect.Type;
-
-public interface IGenericEvent<T> {
-    Type getGenericType();
-}
+package blacksmith.eventbus;
+
+import java.lang.reflect.Type;
+
+public interface IGenericEvent<T> {
+    Type getGenericType();
+}
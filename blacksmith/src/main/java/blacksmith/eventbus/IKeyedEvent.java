@@ -0,0 +1,13 @@
+package blacksmith.eventbus;
+
+/**
+ * Implemented by events which carry a discriminating key, such as a key code or block type.
+ *
+ * Listeners registered with {@link IEventBus#addKeyedListener} only receive events whose key equals
+ * the one they subscribed with, the bus looks them up by key instead of invoking and filtering every listener.
+ *
+ * @param <K> The key type, must have stable {@link Object#equals(Object)} and {@link Object#hashCode()}
+ */
+public interface IKeyedEvent<K> {
+    K getEventKey();
+}
@@ -1,256 +1,511 @@
-package blacksmith.eventbus;
-
-import javax.annotation.Nullable;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicReference;
-
-public class ListenerList {
-    private static List<ListenerList> allLists = new ArrayList<>();
-    private static int maxSize = 0;
-
-    @Nullable
-    private ListenerList parent;
-    private ListenerListInst[] lists = new ListenerListInst[0];
-
-    public ListenerList()
-    {
-        this(null);
-    }
-
-    public ListenerList(@Nullable ListenerList parent)
-    {
-        // parent needs to be set before resize !
-        this.parent = parent;
-        extendMasterList(this);
-        resizeLists(maxSize);
-    }
-
-    private synchronized static void extendMasterList(ListenerList inst)
-    {
-        allLists.add(inst);
-    }
-
-    static void resize(int max)
-    {
-        if (max > maxSize)
-        {
-            synchronized (ListenerList.class)
-            {
-                if (max > maxSize)
-                {
-                    allLists.forEach(list -> list.resizeLists(max));
-                    maxSize = max;
-                }
-            }
-        }
-    }
-
-    private synchronized void resizeLists(int max)
-    {
-        if (parent != null)
-        {
-            parent.resizeLists(max);
-        }
-
-        if (lists.length >= max)
-        {
-            return;
-        }
-
-        ListenerListInst[] newList = new ListenerListInst[max];
-        int x = 0;
-        for (; x < lists.length; x++)
-        {
-            newList[x] = lists[x];
-        }
-        for(; x < max; x++)
-        {
-            if (parent != null)
-            {
-                newList[x] = new ListenerListInst(parent.getInstance(x));
-            }
-            else
-            {
-                newList[x] = new ListenerListInst();
-            }
-        }
-        lists = newList;
-    }
-
-    public static synchronized void clearBusID(int id)
-    {
-        for (ListenerList list : allLists)
-        {
-            list.lists[id].dispose();
-        }
-    }
-
-    protected ListenerListInst getInstance(int id)
-    {
-        return lists[id];
-    }
-
-    public IEventListener[] getListeners(int id)
-    {
-        return lists[id].getListeners();
-    }
-
-    public void register(int id, EventPriority priority, IEventListener listener)
-    {
-        lists[id].register(priority, listener);
-    }
-
-    public void unregister(int id, IEventListener listener)
-    {
-        lists[id].unregister(listener);
-    }
-
-    public static synchronized void unregisterAll(int id, IEventListener listener)
-    {
-        for (ListenerList list : allLists)
-        {
-            list.unregister(id, listener);
-        }
-    }
-
-    private class ListenerListInst
-    {
-        private boolean rebuild = true;
-        private AtomicReference<IEventListener[]> listeners = new AtomicReference<>();
-        private ArrayList<ArrayList<IEventListener>> priorities;
-        private ListenerListInst parent;
-        private List<ListenerListInst> children;
-        private Semaphore writeLock = new Semaphore(1, true);
-
-
-        private ListenerListInst()
-        {
-            int count = EventPriority.values().length;
-            priorities = new ArrayList<>(count);
-
-            for (int x = 0; x < count; x++)
-            {
-                priorities.add(new ArrayList<>());
-            }
-        }
-
-        public void dispose()
-        {
-            writeLock.acquireUninterruptibly();
-            priorities.forEach(ArrayList::clear);
-            priorities.clear();
-            writeLock.release();
-            parent = null;
-            listeners = null;
-            if (children != null)
-                children.clear();
-        }
-
-        private ListenerListInst(ListenerListInst parent)
-        {
-            this();
-            this.parent = parent;
-            this.parent.addChild(this);
-        }
-
-        /**
-         * Returns a ArrayList containing all listeners for this event,
-         * and all parent events for the specified priority.
-         *
-         * The list is returned with the listeners for the children events first.
-         *
-         * @param priority The Priority to get
-         * @return ArrayList containing listeners
-         */
-        public ArrayList<IEventListener> getListeners(EventPriority priority)
-        {
-            writeLock.acquireUninterruptibly();
-            ArrayList<IEventListener> ret = new ArrayList<>(priorities.get(priority.ordinal()));
-            writeLock.release();
-            if (parent != null)
-            {
-                ret.addAll(parent.getListeners(priority));
-            }
-            return ret;
-        }
-
-        /**
-         * Returns a full list of all listeners for all priority levels.
-         * Including all parent listeners.
-         *
-         * List is returned in proper priority order.
-         *
-         * Automatically rebuilds the internal Array cache if its information is out of date.
-         *
-         * @return Array containing listeners
-         */
-        public IEventListener[] getListeners()
-        {
-            if (shouldRebuild()) buildCache();
-            return listeners.get();
-        }
-
-        protected boolean shouldRebuild()
-        {
-            return rebuild;// || (parent != null && parent.shouldRebuild());
-        }
-
-        protected void forceRebuild()
-        {
-            this.rebuild = true;
-            if (this.children != null) {
-                synchronized (this.children) {
-                    for (ListenerListInst child : this.children)
-                        child.forceRebuild();
-                }
-            }
-        }
-
-        private void addChild(ListenerListInst child)
-        {
-            if (this.children == null)
-                this.children = Collections.synchronizedList(new ArrayList<>(2));
-            this.children.add(child);
-        }
-
-        /**
-         * Rebuild the local Array of listeners, returns early if there is no work to do.
-         */
-        private void buildCache()
-        {
-            if(parent != null && parent.shouldRebuild())
-            {
-                parent.buildCache();
-            }
-            ArrayList<IEventListener> ret = new ArrayList<>();
-            Arrays.stream(EventPriority.values()).forEach(value -> {
-                List<IEventListener> listeners = getListeners(value);
-                if (listeners.size() > 0) {
-                    ret.add(value); //Add the priority to notify the event of it's current phase.
-                    ret.addAll(listeners);
-                }
-            });
-            this.listeners.set(ret.toArray(new IEventListener[0]));
-            rebuild = false;
-        }
-
-        public void register(EventPriority priority, IEventListener listener)
-        {
-            writeLock.acquireUninterruptibly();
-            priorities.get(priority.ordinal()).add(listener);
-            writeLock.release();
-            this.forceRebuild();
-        }
-
-        public void unregister(IEventListener listener)
-        {
-            writeLock.acquireUninterruptibly();
-            priorities.stream().filter(list -> list.remove(listener)).forEach(list -> this.forceRebuild());
-            writeLock.release();
-        }
-    }
-}
+package blacksmith.eventbus;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+public class ListenerList {
+    private static List<ListenerList> allLists = new ArrayList<>();
+    private static int maxSize = 0;
+
+    private static final ListenerList[] NO_INTERFACES = new ListenerList[0];
+
+    @Nullable
+    private ListenerList parent;
+    private final ListenerList[] interfaces;
+    private ListenerListInst[] lists = new ListenerListInst[0];
+
+    public ListenerList()
+    {
+        this(null);
+    }
+
+    public ListenerList(@Nullable ListenerList parent)
+    {
+        this(parent, NO_INTERFACES);
+    }
+
+    /**
+     * @param parent The list of the superclass event, or null
+     * @param interfaces The lists of event interfaces this event implements which are not already
+     *                   implemented by the parent, their listeners are merged into this list's dispatch table
+     */
+    public ListenerList(@Nullable ListenerList parent, ListenerList[] interfaces)
+    {
+        // parent and interfaces need to be set before resize !
+        this.parent = parent;
+        this.interfaces = interfaces;
+        extendMasterList(this);
+        resizeLists(maxSize);
+    }
+
+    private synchronized static void extendMasterList(ListenerList inst)
+    {
+        allLists.add(inst);
+    }
+
+    static void resize(int max)
+    {
+        if (max > maxSize)
+        {
+            synchronized (ListenerList.class)
+            {
+                if (max > maxSize)
+                {
+                    allLists.forEach(list -> list.resizeLists(max));
+                    maxSize = max;
+                }
+            }
+        }
+    }
+
+    private synchronized void resizeLists(int max)
+    {
+        if (parent != null)
+        {
+            parent.resizeLists(max);
+        }
+        for (ListenerList iface : interfaces)
+        {
+            iface.resizeLists(max);
+        }
+
+        if (lists.length >= max)
+        {
+            return;
+        }
+
+        ListenerListInst[] newList = new ListenerListInst[max];
+        int x = 0;
+        for (; x < lists.length; x++)
+        {
+            newList[x] = lists[x];
+        }
+        for(; x < max; x++)
+        {
+            ListenerListInst[] interfaceInsts = new ListenerListInst[interfaces.length];
+            for (int i = 0; i < interfaces.length; i++)
+            {
+                interfaceInsts[i] = interfaces[i].getInstance(x);
+            }
+            newList[x] = new ListenerListInst(parent != null ? parent.getInstance(x) : null, interfaceInsts);
+        }
+        lists = newList;
+    }
+
+    public static synchronized void clearBusID(int id)
+    {
+        for (ListenerList list : allLists)
+        {
+            list.lists[id].dispose();
+        }
+    }
+
+    protected ListenerListInst getInstance(int id)
+    {
+        return lists[id];
+    }
+
+    public IEventListener[] getListeners(int id)
+    {
+        return lists[id].getListeners();
+    }
+
+    /**
+     * Returns the listeners for an event with the given key, the unkeyed listeners merged with
+     * those subscribed to that key, in priority order.
+     */
+    public IEventListener[] getListeners(int id, Object key)
+    {
+        return lists[id].getListeners(key);
+    }
+
+    /**
+     * @return true if any keyed or unkeyed listener is registered for this event or its parents on the bus
+     */
+    public boolean hasListeners(int id)
+    {
+        ListenerListInst inst = lists[id];
+        return inst.getListeners().length > 0 || !inst.keyedDispatch.keys.isEmpty();
+    }
+
+    public void register(int id, EventPriority priority, IEventListener listener)
+    {
+        register(id, priority, listener, false);
+    }
+
+    /**
+     * Registers a listener, optionally leaving the cached listener array untouched.
+     *
+     * When the rebuild is deferred the new listener is not visible to posts until
+     * {@link #rebuild(int)} is called for the same bus.
+     */
+    void register(int id, EventPriority priority, IEventListener listener, boolean deferRebuild)
+    {
+        lists[id].register(priority, null, listener, deferRebuild);
+    }
+
+    /**
+     * Registers a listener which only receives events whose {@link IKeyedEvent#getEventKey()} equals the key.
+     */
+    void registerKeyed(int id, EventPriority priority, Object key, IEventListener listener, boolean deferRebuild)
+    {
+        lists[id].register(priority, key, listener, deferRebuild);
+    }
+
+    /**
+     * Invalidates this list and all child lists for the bus, then eagerly rebuilds this list's cache.
+     */
+    void rebuild(int id)
+    {
+        ListenerListInst inst = lists[id];
+        inst.forceRebuild();
+        inst.getListeners();
+    }
+
+    /**
+     * Describes the listeners of this list on the given bus, or returns null if it has none.
+     */
+    @Nullable
+    BusSnapshot.EventEntry snapshot(int id, Class<?> eventClass)
+    {
+        return lists[id].snapshot(eventClass);
+    }
+
+    public void unregister(int id, IEventListener listener)
+    {
+        lists[id].unregister(listener);
+    }
+
+    public static synchronized void unregisterAll(int id, IEventListener listener)
+    {
+        for (ListenerList list : allLists)
+        {
+            list.unregister(id, listener);
+        }
+    }
+
+    private class ListenerListInst
+    {
+        // Bumped by every change, the cached array is current while it was built from the latest change
+        private final AtomicLong changes = new AtomicLong(1);
+        private volatile long built = 0;
+        private AtomicReference<IEventListener[]> listeners = new AtomicReference<>();
+        private volatile KeyedDispatch keyedDispatch = KeyedDispatch.EMPTY;
+        private ArrayList<ArrayList<IEventListener>> priorities;
+        private Map<Object, ArrayList<ArrayList<IEventListener>>> keyed;
+        private final AtomicLong rebuilds = new AtomicLong();
+        private ListenerListInst parent;
+        private ListenerListInst[] interfaces = new ListenerListInst[0];
+        private List<ListenerListInst> children;
+        private Semaphore writeLock = new Semaphore(1, true);
+
+
+        private ListenerListInst()
+        {
+            int count = EventPriority.values().length;
+            priorities = new ArrayList<>(count);
+
+            for (int x = 0; x < count; x++)
+            {
+                priorities.add(new ArrayList<>());
+            }
+        }
+
+        public void dispose()
+        {
+            writeLock.acquireUninterruptibly();
+            priorities.forEach(ArrayList::clear);
+            priorities.clear();
+            keyed = null;
+            writeLock.release();
+            keyedDispatch = KeyedDispatch.EMPTY;
+            parent = null;
+            interfaces = new ListenerListInst[0];
+            listeners = null;
+            if (children != null)
+                children.clear();
+        }
+
+        private ListenerListInst(@Nullable ListenerListInst parent, ListenerListInst[] interfaces)
+        {
+            this();
+            this.parent = parent;
+            this.interfaces = interfaces;
+            if (parent != null)
+                parent.addChild(this);
+            for (ListenerListInst iface : interfaces)
+                iface.addChild(this);
+        }
+
+        /**
+         * Returns a ArrayList containing all listeners for this event,
+         * and all parent events for the specified priority.
+         *
+         * The list is returned with the listeners for the children events first.
+         *
+         * @param priority The Priority to get
+         * @return ArrayList containing listeners
+         */
+        public ArrayList<IEventListener> getListeners(EventPriority priority)
+        {
+            return getListeners(priority, null);
+        }
+
+        /**
+         * Same as {@link #getListeners(EventPriority)}, additionally including the listeners
+         * subscribed to the given key at each level.
+         *
+         * @param priority The Priority to get
+         * @param key The event key, or null for unkeyed listeners only
+         * @return ArrayList containing listeners
+         */
+        public ArrayList<IEventListener> getListeners(EventPriority priority, @Nullable Object key)
+        {
+            writeLock.acquireUninterruptibly();
+            ArrayList<IEventListener> ret = new ArrayList<>(priorities.get(priority.ordinal()));
+            if (key != null && keyed != null)
+            {
+                ArrayList<ArrayList<IEventListener>> forKey = keyed.get(key);
+                if (forKey != null)
+                    ret.addAll(forKey.get(priority.ordinal()));
+            }
+            writeLock.release();
+            for (ListenerListInst iface : interfaces)
+            {
+                iface.addOwnListeners(ret, priority, key);
+            }
+            if (parent != null)
+            {
+                ret.addAll(parent.getListeners(priority, key));
+            }
+            return ret;
+        }
+
+        /**
+         * Adds only the listeners registered directly on this list, interface lists are flattened
+         * by the implementing class so an interface reached through several paths contributes once.
+         */
+        private void addOwnListeners(List<IEventListener> ret, EventPriority priority, @Nullable Object key)
+        {
+            writeLock.acquireUninterruptibly();
+            ret.addAll(priorities.get(priority.ordinal()));
+            if (key != null && keyed != null)
+            {
+                ArrayList<ArrayList<IEventListener>> forKey = keyed.get(key);
+                if (forKey != null)
+                    ret.addAll(forKey.get(priority.ordinal()));
+            }
+            writeLock.release();
+        }
+
+        /**
+         * Returns the full listener array for an event with the given key.
+         *
+         * Only keys which actually have subscribers get their own cached array, any other key
+         * shares the unkeyed array so arbitrary key values do not grow the cache.
+         *
+         * @return Array containing listeners
+         */
+        public IEventListener[] getListeners(Object key)
+        {
+            IEventListener[] unkeyed = getListeners();
+            KeyedDispatch dispatch = keyedDispatch;
+            if (!dispatch.keys.contains(key)) return unkeyed;
+            return dispatch.arrays.computeIfAbsent(key, k -> toArray(value -> getListeners(value, k)));
+        }
+
+        private void addOwnKeys(Set<Object> keys)
+        {
+            writeLock.acquireUninterruptibly();
+            if (keyed != null)
+                keys.addAll(keyed.keySet());
+            writeLock.release();
+        }
+
+        /**
+         * Returns a full list of all listeners for all priority levels.
+         * Including all parent listeners.
+         *
+         * List is returned in proper priority order.
+         *
+         * Automatically rebuilds the internal Array cache if its information is out of date.
+         *
+         * @return Array containing listeners
+         */
+        public IEventListener[] getListeners()
+        {
+            if (shouldRebuild()) buildCache();
+            return listeners.get();
+        }
+
+        protected boolean shouldRebuild()
+        {
+            return built != changes.get();// || (parent != null && parent.shouldRebuild());
+        }
+
+        protected void forceRebuild()
+        {
+            this.changes.incrementAndGet();
+            if (this.children != null) {
+                synchronized (this.children) {
+                    for (ListenerListInst child : this.children)
+                        child.forceRebuild();
+                }
+            }
+        }
+
+        private void addChild(ListenerListInst child)
+        {
+            if (this.children == null)
+                this.children = Collections.synchronizedList(new ArrayList<>(2));
+            this.children.add(child);
+        }
+
+        /**
+         * Rebuild the local Array of listeners, returns early if there is no work to do.
+         *
+         * Builds are serialized and only mark the changes seen before they started as built, so a change made while
+         * building is not lost and an older array is never published over a newer one.
+         */
+        private synchronized void buildCache()
+        {
+            long target = changes.get();
+            if (built == target) return;
+            if(parent != null && parent.shouldRebuild())
+            {
+                parent.buildCache();
+            }
+            Set<Object> keys = new HashSet<>();
+            addOwnKeys(keys);
+            for (ListenerListInst iface : interfaces)
+                iface.addOwnKeys(keys);
+            if (parent != null)
+                keys.addAll(parent.keyedDispatch.keys);
+            // Published before the unkeyed array, a post seeing the new array also sees the new keys
+            this.keyedDispatch = keys.isEmpty() ? KeyedDispatch.EMPTY : new KeyedDispatch(Collections.unmodifiableSet(keys));
+            this.listeners.set(toArray(this::getListeners));
+            built = target;
+            rebuilds.incrementAndGet();
+        }
+
+        @Nullable
+        private BusSnapshot.EventEntry snapshot(Class<?> eventClass)
+        {
+            // Rough object sizes with compressed references: 16 byte headers, 4 byte references
+            EnumMap<EventPriority, Integer> counts = new EnumMap<>(EventPriority.class);
+            List<String> names = new ArrayList<>();
+            long bytes = 0;
+            int total = 0;
+            writeLock.acquireUninterruptibly();
+            try
+            {
+                for (EventPriority priority : EventPriority.values())
+                {
+                    List<IEventListener> own = new ArrayList<>(priorities.get(priority.ordinal()));
+                    if (keyed != null)
+                        keyed.values().forEach(forKey -> own.addAll(forKey.get(priority.ordinal())));
+                    counts.put(priority, own.size());
+                    own.forEach(listener -> names.add(listener.listenerName()));
+                    total += own.size();
+                }
+                // an ArrayList and its backing array per priority, plus one reference per listener
+                bytes += priorities.size() * 40L + 4L * total;
+                if (keyed != null)
+                    bytes += keyed.size() * (32L + priorities.size() * 40L);
+            }
+            finally
+            {
+                writeLock.release();
+            }
+
+            AtomicReference<IEventListener[]> cache = listeners;
+            IEventListener[] cached = cache == null ? null : cache.get();
+            int tableLength = cached == null ? 0 : cached.length;
+            if (total == 0 && tableLength == 0)
+                return null;
+            bytes += 16 + 4L * tableLength;
+            for (IEventListener[] keyedArray : keyedDispatch.arrays.values())
+                bytes += 48 + 4L * keyedArray.length;
+            return new BusSnapshot.EventEntry(eventClass, counts, names, tableLength, rebuilds.get(), bytes);
+        }
+
+        private IEventListener[] toArray(Function<EventPriority, List<IEventListener>> byPriority)
+        {
+            ArrayList<IEventListener> ret = new ArrayList<>();
+            Arrays.stream(EventPriority.values()).forEach(value -> {
+                List<IEventListener> listeners = byPriority.apply(value);
+                if (listeners.size() > 0) {
+                    ret.add(value); //Add the priority to notify the event of it's current phase.
+                    ret.addAll(listeners);
+                }
+            });
+            return ret.toArray(new IEventListener[0]);
+        }
+
+        public void register(EventPriority priority, @Nullable Object key, IEventListener listener, boolean deferRebuild)
+        {
+            writeLock.acquireUninterruptibly();
+            if (key == null)
+            {
+                priorities.get(priority.ordinal()).add(listener);
+            }
+            else
+            {
+                if (keyed == null)
+                    keyed = new HashMap<>();
+                keyed.computeIfAbsent(key, k -> {
+                    ArrayList<ArrayList<IEventListener>> forKey = new ArrayList<>(priorities.size());
+                    for (int x = 0; x < priorities.size(); x++)
+                        forKey.add(new ArrayList<>());
+                    return forKey;
+                }).get(priority.ordinal()).add(listener);
+            }
+            writeLock.release();
+            if (!deferRebuild) this.forceRebuild();
+        }
+
+        public void unregister(IEventListener listener)
+        {
+            writeLock.acquireUninterruptibly();
+            priorities.stream().filter(list -> list.remove(listener)).forEach(list -> this.forceRebuild());
+            if (keyed != null)
+            {
+                keyed.values().removeIf(forKey -> {
+                    forKey.stream().filter(list -> list.remove(listener)).forEach(list -> this.forceRebuild());
+                    return forKey.stream().allMatch(List::isEmpty);
+                });
+            }
+            writeLock.release();
+        }
+    }
+
+    /**
+     * The keys subscribed to on a list and the lists it inherits from, replaced whenever the list is rebuilt
+     * so keyed posts can look up their subscribers without locking. A key's array is built on its first post.
+     */
+    private static final class KeyedDispatch
+    {
+        static final KeyedDispatch EMPTY = new KeyedDispatch(Collections.emptySet());
+
+        final Set<Object> keys;
+        final Map<Object, IEventListener[]> arrays = new ConcurrentHashMap<>();
+
+        KeyedDispatch(Set<Object> keys)
+        {
+            this.keys = keys;
+        }
+    }
+}
@@ -1,8 +1,8 @@
-package blacksmith.eventbus;
-
-import org.apache.logging.log4j.Marker;
-import org.apache.logging.log4j.MarkerManager;
-
-public class LogMarkers {
-    static final Marker EVENTBUS = MarkerManager.getMarker("EVENTBUS");
-}
+package blacksmith.eventbus;
+
+import org.apache.logging.log4j.Marker;
+import org.apache.logging.log4j.MarkerManager;
+
+public class LogMarkers {
+    static final Marker EVENTBUS = MarkerManager.getMarker("EVENTBUS");
+}
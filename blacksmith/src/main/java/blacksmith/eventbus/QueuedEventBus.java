@@ -0,0 +1,162 @@
+package blacksmith.eventbus;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queues events for later dispatch on an {@link IEventBus}, draining them within a time budget.
+ *
+ * Events can be enqueued from any thread, draining is expected to happen on a single thread, usually once per
+ * frame. Events which do not fit in a drain's budget stay queued for the next drain, in the order they were
+ * enqueued. {@link Urgency#CRITICAL} events are always dispatched in full before the budget is considered.
+ * Events enqueued while a drain runs, including by its listeners, are left for the next drain.
+ */
+public class QueuedEventBus {
+
+    /**
+     * How urgently a queued event has to be dispatched, events without this annotation are {@link Urgency#NORMAL}.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    public @interface QueueUrgency {
+        Urgency value();
+    }
+
+    public enum Urgency {
+        /** Never deferred, drained completely even if the budget is exceeded */
+        CRITICAL,
+        NORMAL,
+        /** Only dispatched once all other events fit in the budget */
+        COSMETIC
+    }
+
+    private static final ClassValue<Urgency> URGENCIES = new ClassValue<Urgency>() {
+        @Override
+        protected Urgency computeValue(Class<?> type) {
+            QueueUrgency urgency = type.getAnnotation(QueueUrgency.class);
+            return urgency == null ? Urgency.NORMAL : urgency.value();
+        }
+    };
+
+    private final IEventBus bus;
+    private final Lane[] lanes;
+
+    public QueuedEventBus(IEventBus bus) {
+        this.bus = bus;
+        this.lanes = new Lane[Urgency.values().length];
+        for (int x = 0; x < lanes.length; x++) {
+            lanes[x] = new Lane();
+        }
+    }
+
+    public IEventBus getBus() {
+        return bus;
+    }
+
+    /**
+     * Queue an event to be posted by a later {@link #drainFor(Duration)} or {@link #drainAll()}.
+     */
+    public void enqueue(Event event) {
+        Lane lane = lanes[URGENCIES.get(event.getClass()).ordinal()];
+        lane.queue.add(event);
+        lane.size.incrementAndGet();
+    }
+
+    /**
+     * Post queued events until the budget is spent, most urgent first.
+     *
+     * The budget is checked between events, so a single slow listener can still overrun it.
+     *
+     * @param budget The time allowed for this drain
+     * @return Statistics for this drain
+     */
+    public DrainStats drainFor(Duration budget) {
+        return drain(budget.toNanos());
+    }
+
+    /**
+     * Post every event queued when the drain starts, regardless of time taken.
+     */
+    public DrainStats drainAll() {
+        return drain(Long.MAX_VALUE);
+    }
+
+    /**
+     * @return The number of events currently waiting to be posted
+     */
+    public int getBacklog() {
+        int backlog = 0;
+        for (Lane lane : lanes) {
+            backlog += lane.size.get();
+        }
+        return backlog;
+    }
+
+    private DrainStats drain(long budgetNanos) {
+        final long start = System.nanoTime();
+        // Only the events queued now are drained, so listeners enqueueing more cannot keep the drain going
+        int[] limits = new int[lanes.length];
+        for (int x = 0; x < lanes.length; x++) {
+            limits[x] = lanes[x].size.get();
+        }
+        int processed = 0;
+        for (Urgency urgency : Urgency.values()) {
+            Lane lane = lanes[urgency.ordinal()];
+            boolean bounded = urgency != Urgency.CRITICAL;
+            for (int x = 0; x < limits[urgency.ordinal()] && (!bounded || System.nanoTime() - start < budgetNanos); x++) {
+                Event event = lane.queue.poll();
+                if (event == null) break;
+                lane.size.decrementAndGet();
+                bus.post(event);
+                processed++;
+            }
+        }
+        return new DrainStats(processed, System.nanoTime() - start, getBacklog());
+    }
+
+    private static final class Lane {
+        final Queue<Event> queue = new ConcurrentLinkedQueue<>();
+        final AtomicInteger size = new AtomicInteger();
+    }
+
+    public static final class DrainStats {
+        private final int processed;
+        private final long elapsedNanos;
+        private final int backlog;
+
+        private DrainStats(int processed, long elapsedNanos, int backlog) {
+            this.processed = processed;
+            this.elapsedNanos = elapsedNanos;
+            this.backlog = backlog;
+        }
+
+        /**
+         * @return The number of events posted during the drain
+         */
+        public int getProcessed() {
+            return processed;
+        }
+
+        public Duration getElapsed() {
+            return Duration.ofNanos(elapsedNanos);
+        }
+
+        /**
+         * @return The number of events left queued for the next drain
+         */
+        public int getBacklog() {
+            return backlog;
+        }
+
+        @Override
+        public String toString() {
+            return "DrainStats{processed=" + processed + ", elapsed=" + elapsedNanos / 1000 + "us, backlog=" + backlog + "}";
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package blacksmith.eventbus;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static blacksmith.eventbus.LogMarkers.EVENTBUS;
+
+/**
+ * Forwards selected events from a bus into a single producer, single consumer ring buffer in a memory mapped
+ * file, so another process can re-post them on its own bus with a {@link Receiver}.
+ *
+ * Install with {@link BusBuilder#setPostObserver(IEventPostObserver)}. Only event classes with a codec
+ * registered through {@link #forward(Class, IEventCodec)} are forwarded, the receiver needs codecs for the same
+ * classes. Events are forwarded after they have been posted locally, so listeners on the sending side can still
+ * modify them.
+ *
+ * In {@link Mode#LOSSY} mode events that do not fit in the ring are dropped and counted, in {@link Mode#LOSSLESS}
+ * mode the posting thread waits for the receiver to make room, for at most {@code eventbus.bridgeSendTimeout}
+ * milliseconds (default 10000) before the event is dropped and counted as well. Threads waiting for room do not
+ * hold up posts of events which are not forwarded. Events needing more than half the ring are always dropped.
+ *
+ * Creating a sender resets the indexes of an existing ring file without shrinking it, a receiver attached to the
+ * previous sender has to be reopened.
+ *
+ * File layout, indexes are byte counters which only grow:
+ * <pre>
+ * 0   int magic, int capacity
+ * 64  long write index (sender)
+ * 128 long read index (receiver)
+ * 192 ring data, records of int length, short nameLength, byte[] name, byte[] payload, padded to 8 bytes
+ * </pre>
+ */
+public class SharedMemoryEventBridge implements IEventPostObserver, Closeable {
+    private static final Logger LOGGER = LogManager.getLogger();
+    private static final long sendTimeout = TimeUnit.MILLISECONDS.toNanos(Long.getLong("eventbus.bridgeSendTimeout", 10_000));
+    private static final int MAGIC = 0x424c4b52;
+    private static final int WRITE_INDEX = 64;
+    private static final int READ_INDEX = 128;
+    private static final int DATA = 192;
+    private static final int RECORD_HEADER = 6;
+    // Written where a record would not fit before the end of the ring, the reader skips to the start
+    private static final int PADDING = -1;
+
+    // Release and acquire access to the shared header, the header fields are aligned within the page aligned mapping
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final ThreadLocal<ByteBuffer> SCRATCH = ThreadLocal.withInitial(() -> ByteBuffer.allocate(4096));
+
+    private static final ClassValue<byte[]> CLASS_NAMES = new ClassValue<byte[]>() {
+        @Override
+        protected byte[] computeValue(Class<?> type) {
+            return type.getName().getBytes(StandardCharsets.UTF_8);
+        }
+    };
+
+    public enum Mode {
+        LOSSY,
+        LOSSLESS
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer ring;
+    private final int capacity;
+    private final Mode mode;
+    private final Map<Class<?>, IEventCodec<?>> codecs = new ConcurrentHashMap<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private long writeIndex;
+    private long cachedReadIndex;
+
+    /**
+     * Creates or resets the ring file.
+     *
+     * @param file The file shared with the receiving process, ideally on a tmpfs such as /dev/shm
+     * @param capacity Size of the ring in bytes, must be a power of two
+     */
+    public SharedMemoryEventBridge(Path file, int capacity, Mode mode) throws IOException {
+        if (capacity < 64 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two of at least 64 bytes, was " + capacity);
+        }
+        this.capacity = capacity;
+        this.mode = mode;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Never truncated, a receiver still mapping the old ring would fault on the removed pages
+        this.ring = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA + capacity);
+        this.ring.order(ByteOrder.nativeOrder());
+        INTS.setRelease(ring, 0, 0);
+        LONGS.setRelease(ring, READ_INDEX, 0L);
+        LONGS.setRelease(ring, WRITE_INDEX, 0L);
+        ring.putInt(4, capacity);
+        // magic last, receivers treat the file as ready once it is present
+        INTS.setRelease(ring, 0, MAGIC);
+    }
+
+    public <T extends Event> SharedMemoryEventBridge forward(Class<T> eventType, IEventCodec<T> codec) {
+        codecs.put(eventType, codec);
+        return this;
+    }
+
+    /**
+     * @return The number of events dropped because the ring was full, or in {@link Mode#LOSSLESS} mode because the
+     * receiver did not make room in time, and of events too large for the ring
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public void onPosted(IEventBus bus, Event event) {
+        @SuppressWarnings("unchecked")
+        IEventCodec<Event> codec = (IEventCodec<Event>) codecs.get(event.getClass());
+        if (codec != null) send(event, codec);
+    }
+
+    private void send(Event event, IEventCodec<Event> codec) {
+        byte[] name = CLASS_NAMES.get(event.getClass());
+        ByteBuffer payload = encode(event, codec);
+        int length = align(RECORD_HEADER + name.length + payload.remaining());
+        if (length > capacity / 2) {
+            LOGGER.warn(EVENTBUS, "Not forwarding {}, its {} byte record needs more than half the ring", event.getClass().getName(), length);
+            dropped.incrementAndGet();
+            return;
+        }
+        // The lock is only held while there is room, waiting for the receiver happens outside it
+        long deadline = 0;
+        while (!tryWrite(name, payload, length)) {
+            if (mode == Mode.LOSSY) {
+                dropped.incrementAndGet();
+                return;
+            }
+            if (deadline == 0) {
+                deadline = System.nanoTime() + sendTimeout;
+            } else if (System.nanoTime() - deadline > 0) {
+                LOGGER.warn(EVENTBUS, "Dropped {}, the receiver made no room for it in {} ms", event.getClass().getName(), TimeUnit.NANOSECONDS.toMillis(sendTimeout));
+                dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.parkNanos(10_000);
+        }
+    }
+
+    private synchronized boolean tryWrite(byte[] name, ByteBuffer payload, int length) {
+        int offset = (int) (writeIndex & (capacity - 1));
+        int tail = capacity - offset;
+        int needed = length > tail ? tail + length : length;
+        if (writeIndex + needed - cachedReadIndex > capacity) {
+            cachedReadIndex = (long) LONGS.getAcquire(ring, READ_INDEX);
+            if (writeIndex + needed - cachedReadIndex > capacity) return false;
+        }
+        if (length > tail) {
+            ring.putInt(DATA + offset, PADDING);
+            writeIndex += tail;
+            offset = 0;
+        }
+        int at = DATA + offset;
+        ring.putInt(at, length);
+        ring.putShort(at + 4, (short) name.length);
+        for (int x = 0; x < name.length; x++) {
+            ring.put(at + RECORD_HEADER + x, name[x]);
+        }
+        int payloadAt = at + RECORD_HEADER + name.length;
+        for (int x = payload.position(); x < payload.limit(); x++) {
+            ring.put(payloadAt++, payload.get(x));
+        }
+        writeIndex += length;
+        // publish the record, release ordering makes the bytes above visible first
+        LONGS.setRelease(ring, WRITE_INDEX, writeIndex);
+        return true;
+    }
+
+    private static ByteBuffer encode(Event event, IEventCodec<Event> codec) {
+        ByteBuffer scratch = SCRATCH.get();
+        while (true) {
+            scratch.clear();
+            try {
+                codec.encode(event, scratch);
+                scratch.flip();
+                return scratch;
+            } catch (BufferOverflowException e) {
+                scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+                SCRATCH.set(scratch);
+            }
+        }
+    }
+
+    private static int align(int length) {
+        return (length + 7) & ~7;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads events written by a {@link SharedMemoryEventBridge} in another process and posts them on a local bus.
+     *
+     * Only one thread may poll a receiver, and only one receiver may read a ring.
+     */
+    public static class Receiver implements Closeable {
+        private final FileChannel channel;
+        private final MappedByteBuffer ring;
+        private final int capacity;
+        private final Map<String, IEventCodec<?>> codecs = new HashMap<>();
+        private long readIndex;
+        private long skipped;
+
+        /**
+         * Opens a ring file created by the sending process.
+         *
+         * @throws IOException If the file is not a ring, is not initialised yet or is shorter than its header claims
+         */
+        public Receiver(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                // Only mapped writable once the size is checked, mapping past the end would grow the file
+                long size = channel.size();
+                if (size < DATA) throw new IOException("Not an event bridge ring, or not initialised yet: " + file);
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, DATA);
+                header.order(ByteOrder.nativeOrder());
+                if ((int) INTS.getAcquire(header, 0) != MAGIC) {
+                    throw new IOException("Not an event bridge ring, or not initialised yet: " + file);
+                }
+                int capacity = header.getInt(4);
+                if (capacity < 64 || Integer.bitCount(capacity) != 1 || capacity > Integer.MAX_VALUE - DATA || DATA + (long) capacity > size) {
+                    throw new IOException("Event bridge ring " + file + " has an invalid capacity " + capacity + " for its size " + size);
+                }
+                this.capacity = capacity;
+                this.ring = channel.map(FileChannel.MapMode.READ_WRITE, 0, DATA + capacity);
+                this.ring.order(ByteOrder.nativeOrder());
+                this.readIndex = (long) LONGS.getAcquire(ring, READ_INDEX);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        public <T extends Event> Receiver receive(Class<T> eventType, IEventCodec<T> codec) {
+            codecs.put(eventType.getName(), codec);
+            return this;
+        }
+
+        /**
+         * @return The number of records skipped because no codec was registered for their event class
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * Posts up to {@code max} waiting events to the bus. A record whose codec throws is consumed, and the
+         * exception passed on, so the next poll continues after it.
+         *
+         * @return The number of events posted
+         */
+        public int poll(IEventBus bus, int max) {
+            long writeIndex = (long) LONGS.getAcquire(ring, WRITE_INDEX);
+            int posted = 0;
+            while (readIndex < writeIndex && posted < max) {
+                int offset = (int) (readIndex & (capacity - 1));
+                int at = DATA + offset;
+                int length = ring.getInt(at);
+                if (length == PADDING) {
+                    readIndex += capacity - offset;
+                    continue;
+                }
+                byte[] name = new byte[ring.getShort(at + 4)];
+                for (int x = 0; x < name.length; x++) {
+                    name[x] = ring.get(at + RECORD_HEADER + x);
+                }
+                IEventCodec<?> codec = codecs.get(new String(name, StandardCharsets.UTF_8));
+                if (codec != null) {
+                    ByteBuffer payload = ring.duplicate();
+                    payload.limit(at + length).position(at + RECORD_HEADER + name.length);
+                    Event event;
+                    try {
+                        event = codec.decode(payload.slice());
+                    } finally {
+                        readIndex += length;
+                        // free the record before posting so the sender is not held up by slow listeners
+                        LONGS.setRelease(ring, READ_INDEX, readIndex);
+                    }
+                    bus.post(event);
+                    posted++;
+                } else {
+                    skipped++;
+                    readIndex += length;
+                    LONGS.setRelease(ring, READ_INDEX, readIndex);
+                }
+            }
+            LONGS.setRelease(ring, READ_INDEX, readIndex);
+            return posted;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
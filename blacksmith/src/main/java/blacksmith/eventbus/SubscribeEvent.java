@@ -1,14 +1,14 @@
-package blacksmith.eventbus;
-
-import java.lang.annotation.ElementType;
-import java.lang.annotation.Retention;
-import java.lang.annotation.RetentionPolicy;
-import java.lang.annotation.Target;
-
-
-@Retention(RetentionPolicy.RUNTIME)
-@Target(ElementType.METHOD)
-public @interface SubscribeEvent {
-    EventPriority eventPriority() default EventPriority.NORMAL;
-    boolean recieveCanceled() default false;
-}
+package blacksmith.eventbus;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface SubscribeEvent {
+    EventPriority eventPriority() default EventPriority.NORMAL;
+    boolean recieveCanceled() default false;
+}
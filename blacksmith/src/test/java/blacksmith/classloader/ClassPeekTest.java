@@ -0,0 +1,85 @@
+package blacksmith.classloader;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares what {@link ClassPeek} reads from class files with ASM's {@link ClassReader}.
+ */
+public class ClassPeekTest {
+    // Long and double constants take two pool slots, the lambda adds MethodHandle and InvokeDynamic entries
+    static final class Constants implements Serializable, Supplier<Object> {
+        static final long LONG = 0x123456789L;
+        static final double DOUBLE = 1.5e300;
+
+        @Override
+        public Object get() {
+            Supplier<String> lambda = () -> "peeked constant";
+            return lambda.get() + LONG + DOUBLE;
+        }
+    }
+
+    @Test
+    public void matchesAsm() throws IOException {
+        for (Class<?> type : Arrays.asList(Object.class, String.class, ArrayList.class, ConcurrentHashMap.class, Runnable.class, Constants.class, ClassPeekTest.class)) {
+            byte[] bytes = classBytes(type);
+            ClassPeek peek = ClassPeek.of(bytes);
+            assertNotNull(peek, type.getName());
+            ClassReader reader = new ClassReader(bytes);
+            assertEquals(reader.getAccess(), peek.getAccess(), type.getName());
+            assertEquals(reader.getSuperName(), peek.getSuperName(), type.getName());
+            assertArrayEquals(reader.getInterfaces(), peek.getInterfaces(), type.getName());
+        }
+    }
+
+    @Test
+    public void findsPoolStrings() throws IOException {
+        ClassPeek peek = ClassPeek.of(classBytes(Constants.class));
+        assertNotNull(peek);
+        assertTrue(peek.containsUtf8("java/util/function/Supplier".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(peek.containsUtf8("peeked constant".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(peek.containsUtf8("java/util/function/Supplie".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(peek.containsUtf8("not in the pool".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void rejectsDamagedClassFiles() throws IOException {
+        byte[] bytes = classBytes(String.class);
+        assertNull(ClassPeek.of(Arrays.copyOf(bytes, 64)));
+        // An unknown tag on the first pool entry
+        bytes[10] = 99;
+        assertNull(ClassPeek.of(bytes));
+    }
+
+    private static byte[] classBytes(Class<?> type) throws IOException {
+        String resource = type.getName().replace('.', '/') + ".class";
+        ClassLoader loader = type.getClassLoader() == null ? ClassLoader.getSystemClassLoader() : type.getClassLoader();
+        try (InputStream in = loader.getResourceAsStream(resource)) {
+            assertNotNull(in, resource);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
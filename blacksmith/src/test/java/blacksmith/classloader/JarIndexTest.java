@@ -0,0 +1,149 @@
+package blacksmith.classloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reads jars written by {@link JarOutputStream} through a {@link JarIndex} and compares them with the JDK's reader.
+ */
+public class JarIndexTest {
+    private static final String SPACED = "some dir/na\u00efve entry.txt";
+
+    @Test
+    public void readsStoredAndDeflatedEntries() throws IOException {
+        byte[] random = new byte[100_000];
+        new Random(42).nextBytes(random);
+        byte[] text = new String(new char[50_000]).replace('\0', 'a').getBytes(StandardCharsets.UTF_8);
+        Path jar = writeJar(random, text);
+        try {
+            JarIndex index = JarIndex.open(jar);
+            assertNotNull(index);
+            assertArrayEquals(random, index.read("stored.bin"));
+            assertArrayEquals(text, index.read("deflated.txt"));
+            assertArrayEquals(new byte[0], index.read("empty.txt"));
+            assertNull(index.read("missing.txt"));
+            assertTrue(index.contains(SPACED));
+            assertNotNull(index.getManifest());
+            assertEquals("test", index.getManifest().getMainAttributes().getValue(Attributes.Name.IMPLEMENTATION_TITLE));
+        } finally {
+            Files.delete(jar);
+        }
+    }
+
+    @Test
+    public void entryUrlsAreEncoded() throws IOException {
+        Path jar = writeJar(new byte[1], new byte[1]);
+        try {
+            JarIndex index = JarIndex.open(jar);
+            assertNotNull(index);
+            URL url = index.getEntryUrl(SPACED);
+            assertEquals(-1, url.toString().indexOf(' '));
+            try (InputStream in = url.openStream()) {
+                assertArrayEquals(SPACED.getBytes(StandardCharsets.UTF_8), readFully(in));
+            }
+        } finally {
+            Files.delete(jar);
+        }
+    }
+
+    @Test
+    public void zip64EntrySizesAreNotIndexed() throws IOException {
+        Path jar = writeJar(new byte[16], new byte[16]);
+        try {
+            byte[] bytes = Files.readAllBytes(jar);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            int central = -1;
+            for (int x = 0; x < bytes.length - 4; x++) {
+                if (buffer.getInt(x) == 0x02014b50) {
+                    central = x;
+                    break;
+                }
+            }
+            assertTrue(central >= 0);
+            // What a writer puts in the central header when the real size is in the zip64 extra field
+            buffer.putInt(central + 24, 0xFFFFFFFF);
+            Files.write(jar, bytes);
+            assertNull(JarIndex.open(jar));
+        } finally {
+            Files.delete(jar);
+        }
+    }
+
+    @Test
+    public void multiReleaseJarsAreNotIndexed() throws IOException {
+        Path jar = Files.createTempFile("jarindex", ".jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MULTI_RELEASE, "true");
+        try {
+            try (OutputStream file = Files.newOutputStream(jar); JarOutputStream out = new JarOutputStream(file, manifest)) {
+                out.putNextEntry(new ZipEntry("entry.txt"));
+                out.putNextEntry(new ZipEntry("META-INF/versions/11/entry.txt"));
+            }
+            assertNull(JarIndex.open(jar));
+        } finally {
+            Files.delete(jar);
+        }
+    }
+
+    @Test
+    public void encodesOnlyIllegalPathCharacters() {
+        assertEquals("com/example/Foo$1.class", JarIndex.encodePath("com/example/Foo$1.class"));
+        assertEquals("a%20b/%C3%A9%25.txt", JarIndex.encodePath("a b/\u00e9%.txt"));
+    }
+
+    private static Path writeJar(byte[] stored, byte[] deflated) throws IOException {
+        Path jar = Files.createTempFile("jarindex", ".jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.IMPLEMENTATION_TITLE, "test");
+        try (OutputStream file = Files.newOutputStream(jar); JarOutputStream out = new JarOutputStream(file, manifest)) {
+            ZipEntry entry = new ZipEntry("stored.bin");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(stored.length);
+            CRC32 crc = new CRC32();
+            crc.update(stored);
+            entry.setCrc(crc.getValue());
+            out.putNextEntry(entry);
+            out.write(stored);
+            out.putNextEntry(new ZipEntry("deflated.txt"));
+            out.write(deflated);
+            out.putNextEntry(new ZipEntry("empty.txt"));
+            out.putNextEntry(new ZipEntry(SPACED));
+            out.write(SPACED.getBytes(StandardCharsets.UTF_8));
+        }
+        return jar;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        byte[] buffer = new byte[256];
+        int length = 0, read;
+        while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+        }
+        byte[] bytes = new byte[length];
+        System.arraycopy(buffer, 0, bytes, 0, length);
+        return bytes;
+    }
+}
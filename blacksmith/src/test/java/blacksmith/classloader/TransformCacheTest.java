@@ -0,0 +1,126 @@
+package blacksmith.classloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Stores entries in a {@link TransformCache}, reopens it and checks damaged or out of date entries miss.
+ */
+public class TransformCacheTest {
+    private static final ClassLoader LOADER = TransformCacheTest.class.getClassLoader();
+
+    @Test
+    public void entriesSurviveGrowAndReopen() throws IOException {
+        Path dir = Files.createTempDirectory("transformcache");
+        try {
+            TransformCache cache = open(dir);
+            // Enough entries to grow the index past its initial capacity
+            for (int x = 0; x < 5000; x++) {
+                cache.put(key(x), input(x), output(x), Collections.emptyList());
+            }
+            byte[] unchanged = input(-1);
+            cache.put(key(-1), unchanged, unchanged, Collections.emptyList());
+            cache.close();
+
+            cache = open(dir);
+            for (int x = 0; x < 5000; x++) {
+                assertArrayEquals(output(x), cache.get(key(x), input(x), LOADER), "entry " + x);
+            }
+            assertSame(unchanged, cache.get(key(-1), unchanged, LOADER));
+            assertNull(cache.get(key(5000), input(5000), LOADER));
+            cache.close();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void damagedEntryMissesAndIsReplaced() throws IOException {
+        Path dir = Files.createTempDirectory("transformcache");
+        try {
+            TransformCache cache = open(dir);
+            cache.put(key(1), input(1), output(1), Collections.emptyList());
+            cache.close();
+
+            try (RandomAccessFile data = new RandomAccessFile(dir.resolve("classes.dat").toFile(), "rw")) {
+                data.seek(data.length() - 1);
+                int last = data.read();
+                data.seek(data.length() - 1);
+                data.write(last ^ 0xFF);
+            }
+            cache = open(dir);
+            assertNull(cache.get(key(1), input(1), LOADER));
+            cache.put(key(1), input(1), output(1), Collections.emptyList());
+            assertArrayEquals(output(1), cache.get(key(1), input(1), LOADER));
+            cache.close();
+
+            // An index pointing past the end of the data, as after a crash before the data was written
+            try (RandomAccessFile data = new RandomAccessFile(dir.resolve("classes.dat").toFile(), "rw")) {
+                data.setLength(0);
+            }
+            cache = open(dir);
+            assertNull(cache.get(key(1), input(1), LOADER));
+            cache.close();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void changedHierarchyMisses() throws IOException {
+        Path dir = Files.createTempDirectory("transformcache");
+        try {
+            TransformCache cache = open(dir);
+            List<String> current = Arrays.asList("java/lang/Integer", "java/lang/Long", "java/lang/Number");
+            List<String> stale = Arrays.asList("java/lang/Integer", "java/lang/String", "java/lang/Number");
+            cache.put(key(1), input(1), output(1), current);
+            cache.put(key(2), input(2), output(2), stale);
+            assertArrayEquals(output(1), cache.get(key(1), input(1), LOADER));
+            assertNull(cache.get(key(2), input(2), LOADER));
+            cache.close();
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static TransformCache open(Path dir) {
+        TransformCache cache = TransformCache.open(dir);
+        assertNotNull(cache);
+        return cache;
+    }
+
+    private static byte[] key(int x) {
+        return TransformCache.keyOf("test.Class" + x, input(x), Collections.emptyList());
+    }
+
+    private static byte[] input(int x) {
+        return ("input " + x).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] output(int x) {
+        return ("transformed " + x).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,217 @@
+package blacksmith.eventbus;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Races registration, unregistration, posting and bus creation against each other and checks that no
+ * listener is lost or duplicated once the threads have settled. Throughput is printed so changes to the
+ * listener list locking can be compared.
+ *
+ * Thread and iteration counts can be raised with {@code eventbus.stress.threads} and {@code eventbus.stress.iterations}.
+ */
+public class ConcurrencyStressTest {
+    private static final int THREADS = Integer.getInteger("eventbus.stress.threads", Math.max(4, Runtime.getRuntime().availableProcessors()));
+    private static final int ITERATIONS = Integer.getInteger("eventbus.stress.iterations", 2000);
+
+    public static class StressEvent extends Event {
+        public StressEvent() {}
+    }
+
+    public static class ChildStressEvent extends StressEvent {
+        public ChildStressEvent() {}
+    }
+
+    public static class StaticSubscriber {
+        static final AtomicInteger calls = new AtomicInteger();
+
+        @SubscribeEvent
+        public static void onEvent(ChildStressEvent event) {
+            calls.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void registerWhilePosting() throws InterruptedException {
+        IEventBus bus = BusBuilder.builder().build();
+        int listeners = THREADS * ITERATIONS / 10;
+        AtomicIntegerArray hits = new AtomicIntegerArray(listeners);
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong posts = new AtomicLong();
+
+        long elapsed = race(THREADS,
+                () -> {
+                    int id;
+                    while ((id = next.getAndIncrement()) < listeners) {
+                        final int slot = id;
+                        bus.addListener(EventPriority.values()[slot % 5], false, ChildStressEvent.class, e -> hits.incrementAndGet(slot));
+                    }
+                },
+                () -> {
+                    bus.post(new ChildStressEvent());
+                    posts.incrementAndGet();
+                });
+        report("register vs post", listeners + posts.get(), elapsed);
+
+        resetAll(hits);
+        bus.post(new ChildStressEvent());
+        assertAllEqual(hits, 1);
+    }
+
+    @Test
+    public void unregisterWhilePosting() throws InterruptedException {
+        IEventBus bus = BusBuilder.builder().build();
+        int listeners = THREADS * ITERATIONS / 10;
+        AtomicIntegerArray hits = new AtomicIntegerArray(listeners);
+        List<Consumer<StressEvent>> consumers = new ArrayList<>();
+        for (int x = 0; x < listeners; x++) {
+            final int slot = x;
+            Consumer<StressEvent> consumer = e -> hits.incrementAndGet(slot);
+            consumers.add(consumer);
+            bus.addListener(EventPriority.NORMAL, false, StressEvent.class, consumer);
+        }
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong posts = new AtomicLong();
+
+        long elapsed = race(THREADS,
+                () -> {
+                    int id;
+                    while ((id = next.getAndIncrement()) < listeners) {
+                        // drop every odd listener
+                        if ((id & 1) == 1) bus.unregister(consumers.get(id));
+                    }
+                },
+                () -> {
+                    bus.post(new ChildStressEvent());
+                    posts.incrementAndGet();
+                });
+        report("unregister vs post", listeners / 2 + posts.get(), elapsed);
+
+        resetAll(hits);
+        bus.post(new ChildStressEvent());
+        for (int x = 0; x < listeners; x++) {
+            assertEquals((x & 1) == 1 ? 0 : 1, hits.get(x), "listener " + x);
+        }
+    }
+
+    @Test
+    public void createBusesWhilePosting() throws InterruptedException {
+        IEventBus bus = BusBuilder.builder().build();
+        AtomicInteger hits = new AtomicInteger();
+        bus.addListener(EventPriority.NORMAL, false, ChildStressEvent.class, e -> hits.incrementAndGet());
+        AtomicInteger created = new AtomicInteger();
+        AtomicLong posts = new AtomicLong();
+        int buses = ITERATIONS / 10;
+
+        long elapsed = race(THREADS,
+                () -> {
+                    while (created.getAndIncrement() < buses) {
+                        IEventBus other = BusBuilder.builder().build();
+                        other.addListener(EventPriority.NORMAL, false, ChildStressEvent.class, e -> {});
+                    }
+                },
+                () -> {
+                    bus.post(new ChildStressEvent());
+                    posts.incrementAndGet();
+                });
+        report("new EventBus vs post", buses + posts.get(), elapsed);
+
+        assertEquals(posts.get(), hits.get());
+    }
+
+    @Test
+    public void registerClassOnManyBuses() throws InterruptedException {
+        int buses = THREADS * 4;
+        List<IEventBus> all = new ArrayList<>();
+        for (int x = 0; x < buses; x++) {
+            all.add(BusBuilder.builder().build());
+        }
+        AtomicInteger next = new AtomicInteger();
+
+        long elapsed = race(THREADS, () -> {
+            int id;
+            while ((id = next.getAndIncrement()) < buses) {
+                all.get(id).register(StaticSubscriber.class);
+            }
+        }, null);
+        report("register class", buses, elapsed);
+
+        StaticSubscriber.calls.set(0);
+        all.forEach(bus -> bus.post(new ChildStressEvent()));
+        assertEquals(buses, StaticSubscriber.calls.get());
+    }
+
+    /**
+     * Runs half the threads as writers and half as readers, or all as writers if there is no reader,
+     * returning the elapsed time in nanoseconds. Readers repeat their step until every writer has finished.
+     */
+    private static long race(int threads, Runnable writer, Runnable readerStep) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch writers = new CountDownLatch(readerStep == null ? threads : (threads + 1) / 2);
+        List<Throwable> failures = new ArrayList<>();
+        for (int x = 0; x < threads; x++) {
+            boolean isWriter = readerStep == null || (x & 1) == 0;
+            pool.execute(() -> {
+                try {
+                    start.await();
+                    if (isWriter) {
+                        try {
+                            writer.run();
+                        } finally {
+                            writers.countDown();
+                        }
+                    } else {
+                        while (writers.getCount() > 0) {
+                            readerStep.run();
+                        }
+                    }
+                } catch (Throwable t) {
+                    synchronized (failures) {
+                        failures.add(t);
+                    }
+                }
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(2, TimeUnit.MINUTES), "stress threads did not finish");
+        long elapsed = System.nanoTime() - begin;
+        if (!failures.isEmpty()) {
+            AssertionError error = new AssertionError("stress thread failed");
+            failures.forEach(error::addSuppressed);
+            throw error;
+        }
+        return elapsed;
+    }
+
+    private static void resetAll(AtomicIntegerArray hits) {
+        for (int x = 0; x < hits.length(); x++) {
+            hits.set(x, 0);
+        }
+    }
+
+    private static void assertAllEqual(AtomicIntegerArray hits, int expected) {
+        for (int x = 0; x < hits.length(); x++) {
+            assertEquals(expected, hits.get(x), "listener " + x);
+        }
+    }
+
+    private static void report(String name, long operations, long elapsedNanos) {
+        System.out.printf("%-22s %,10d ops in %6.1f ms (%,.0f ops/s)%n", name, operations, elapsedNanos / 1e6, operations / (elapsedNanos / 1e9));
+    }
+}
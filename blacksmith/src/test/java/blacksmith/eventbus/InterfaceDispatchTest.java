@@ -0,0 +1,55 @@
+package blacksmith.eventbus;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that interface listeners receive the events implementing their interface, and that only event
+ * interfaces are accepted.
+ */
+public class InterfaceDispatchTest {
+    public interface Damaging extends IEventInterface {
+        float getDamage();
+    }
+
+    public static class DamageEvent extends Event implements Damaging {
+        @Override
+        public float getDamage() {
+            return 4;
+        }
+    }
+
+    public static class FallDamageEvent extends DamageEvent {
+    }
+
+    public interface NotAnEvent {
+    }
+
+    public static class UnrelatedEvent extends Event {
+    }
+
+    @Test
+    public void interfaceListenersSeeImplementingEvents() {
+        IEventBus bus = BusBuilder.builder().build();
+        List<Float> damage = new ArrayList<>();
+        bus.addInterfaceListener(EventPriority.NORMAL, false, Damaging.class, event -> damage.add(event.getDamage()));
+
+        bus.post(new DamageEvent());
+        bus.post(new FallDamageEvent());
+        bus.post(new UnrelatedEvent());
+        assertEquals(Arrays.asList(4f, 4f), damage);
+    }
+
+    @Test
+    public void plainInterfacesAreRejected() {
+        IEventBus bus = BusBuilder.builder().build();
+        assertThrows(IllegalArgumentException.class, () -> bus.addInterfaceListener(EventPriority.NORMAL, false, NotAnEvent.class, event -> {}));
+        assertThrows(IllegalArgumentException.class, () -> bus.addInterfaceListener(EventPriority.NORMAL, false, Runnable.class, Runnable::run));
+    }
+}
@@ -0,0 +1,62 @@
+package blacksmith.eventbus;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks which listeners keyed dispatch invokes, and in which order.
+ */
+public class KeyedDispatchTest {
+    public static class KeyEvent extends Event implements IKeyedEvent<String> {
+        private final String key;
+
+        public KeyEvent() {
+            this("");
+        }
+
+        public KeyEvent(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public String getEventKey() {
+            return key;
+        }
+    }
+
+    public static class SubKeyEvent extends KeyEvent {
+        public SubKeyEvent() {
+        }
+
+        public SubKeyEvent(String key) {
+            super(key);
+        }
+    }
+
+    @Test
+    public void keyedListenersOnlySeeTheirKey() {
+        IEventBus bus = BusBuilder.builder().build();
+        List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        bus.addKeyedListener(KeyEvent.class, "a", event -> calls.add("a"));
+        bus.addKeyedListener(EventPriority.HIGH, false, KeyEvent.class, "b", event -> calls.add("b"));
+        bus.addListener(EventPriority.LOW, false, KeyEvent.class, event -> calls.add("any " + event.getEventKey()));
+
+        bus.post(new KeyEvent("a"));
+        bus.post(new KeyEvent("b"));
+        bus.post(new KeyEvent("c"));
+        assertEquals(Arrays.asList("a", "any a", "b", "any b", "any c"), calls);
+
+        // Added after the keyed tables were built, and inherited by a subclass
+        calls.clear();
+        bus.addKeyedListener(EventPriority.LOWEST, false, KeyEvent.class, "c", event -> calls.add("c"));
+        bus.post(new SubKeyEvent("c"));
+        bus.post(new SubKeyEvent("a"));
+        assertEquals(Arrays.asList("any c", "c", "a", "any a"), calls);
+    }
+}
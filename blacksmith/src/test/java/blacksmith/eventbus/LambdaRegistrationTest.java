@@ -0,0 +1,80 @@
+package blacksmith.eventbus;
+
+import net.jodah.typetools.TypeResolver;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Registering many lambda listeners from one call site, which share a lambda class and so must resolve their
+ * event type once. Also prints the time taken next to resolving every lambda with {@link TypeResolver}, with its
+ * own cache disabled.
+ *
+ * The registration count can be changed with {@code eventbus.benchmark.registrations}.
+ */
+public class LambdaRegistrationTest {
+    private static final int REGISTRATIONS = Integer.getInteger("eventbus.benchmark.registrations", 10_000);
+
+    public static class RegisteredEvent extends Event {
+        public RegisteredEvent() {}
+    }
+
+    @Test
+    public void resolvesOncePerCallSite() {
+        IEventBus bus = BusBuilder.builder().build();
+        AtomicInteger calls = new AtomicInteger();
+        Consumer<RegisteredEvent>[] consumers = createConsumers(calls);
+        Consumer<RegisteredEvent>[] others = createOtherConsumers(calls);
+
+        long resolutions = ConsumerTypeResolver.getResolutions();
+        long begin = System.nanoTime();
+        bus.batch(() -> {
+            for (Consumer<RegisteredEvent> consumer : consumers) {
+                bus.addListener(consumer);
+            }
+            for (Consumer<RegisteredEvent> consumer : others) {
+                bus.addListener(consumer);
+            }
+        });
+        long cached = System.nanoTime() - begin;
+        assertEquals(2, ConsumerTypeResolver.getResolutions() - resolutions, "lambda types resolved per call site");
+
+        TypeResolver.disableCache();
+        begin = System.nanoTime();
+        try {
+            for (Consumer<RegisteredEvent> consumer : consumers) {
+                assertEquals(RegisteredEvent.class, TypeResolver.resolveRawArgument(Consumer.class, consumer.getClass()));
+            }
+        } finally {
+            TypeResolver.enableCache();
+        }
+        long uncached = System.nanoTime() - begin;
+
+        System.out.printf("%,d lambda registrations in %.1f ms, uncached type resolution alone takes %.1f ms%n",
+                REGISTRATIONS * 2, cached / 1e6, uncached / 1e6);
+
+        bus.post(new RegisteredEvent());
+        assertEquals(REGISTRATIONS * 2, calls.get());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Consumer<RegisteredEvent>[] createConsumers(AtomicInteger calls) {
+        Consumer<RegisteredEvent>[] consumers = new Consumer[REGISTRATIONS];
+        for (int x = 0; x < REGISTRATIONS; x++) {
+            consumers[x] = event -> calls.incrementAndGet();
+        }
+        return consumers;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Consumer<RegisteredEvent>[] createOtherConsumers(AtomicInteger calls) {
+        Consumer<RegisteredEvent>[] consumers = new Consumer[REGISTRATIONS];
+        for (int x = 0; x < REGISTRATIONS; x++) {
+            consumers[x] = event -> calls.addAndGet(1);
+        }
+        return consumers;
+    }
+}
@@ -0,0 +1,194 @@
+package blacksmith.eventbus;
+
+import net.jodah.typetools.TypeResolver;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Forwards events through a ring file, to a receiver started as a second JVM and to one in this JVM.
+ */
+public class SharedMemoryEventBridgeTest {
+    private static final int EVENTS = 20_000;
+
+    public static class PingEvent extends Event {
+        private final long value;
+
+        public PingEvent() {
+            this(0);
+        }
+
+        public PingEvent(long value) {
+            this.value = value;
+        }
+    }
+
+    static final IEventCodec<PingEvent> CODEC = new IEventCodec<PingEvent>() {
+        @Override
+        public void encode(PingEvent event, ByteBuffer out) {
+            out.putLong(event.value);
+        }
+
+        @Override
+        public PingEvent decode(ByteBuffer in) {
+            return new PingEvent(in.getLong());
+        }
+    };
+
+    @Test
+    @Timeout(value = 2, unit = TimeUnit.MINUTES)
+    public void losslessToAnotherProcess() throws Exception {
+        Path file = Files.createTempFile("eventbridge", ".ring");
+        try (SharedMemoryEventBridge bridge = new SharedMemoryEventBridge(file, 4096, SharedMemoryEventBridge.Mode.LOSSLESS)) {
+            bridge.forward(PingEvent.class, CODEC);
+            IEventBus bus = BusBuilder.builder().setPostObserver(bridge).build();
+
+            Process receiver = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", classPathOf(ReceivingProcess.class, SharedMemoryEventBridge.class, LogManager.class, LoggerContext.class,
+                    TypeResolver.class, ClassWriter.class), ReceivingProcess.class.getName(), file.toString(), Integer.toString(EVENTS))
+                    .redirectErrorStream(true)
+                    .start();
+            long expectedSum = 0;
+            for (int x = 1; x <= EVENTS; x++) {
+                // a receiver which died would leave every post waiting out the send timeout
+                if (!receiver.isAlive()) fail("receiver exited early with " + receiver.exitValue());
+                bus.post(new PingEvent(x));
+                expectedSum += x;
+            }
+
+            String output;
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(receiver.getInputStream(), StandardCharsets.UTF_8))) {
+                output = in.readLine();
+            }
+            assertTrue(receiver.waitFor(1, TimeUnit.MINUTES), "receiver did not exit");
+            assertEquals("received " + EVENTS + " sum " + expectedSum, output);
+            assertEquals(0, bridge.getDropped());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void lossyDropsWhenFull() throws IOException {
+        Path file = Files.createTempFile("eventbridge", ".ring");
+        try (SharedMemoryEventBridge bridge = new SharedMemoryEventBridge(file, 1024, SharedMemoryEventBridge.Mode.LOSSY);
+             SharedMemoryEventBridge.Receiver receiver = new SharedMemoryEventBridge.Receiver(file)) {
+            bridge.forward(PingEvent.class, CODEC);
+            IEventBus bus = BusBuilder.builder().setPostObserver(bridge).build();
+            for (int x = 0; x < 200; x++) {
+                bus.post(new PingEvent(x));
+            }
+            receiver.receive(PingEvent.class, CODEC);
+            int received = receiver.poll(BusBuilder.builder().build(), Integer.MAX_VALUE);
+            assertTrue(bridge.getDropped() > 0, "nothing was dropped");
+            assertEquals(200, received + bridge.getDropped());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void receiverSkipsRecordItCannotDecode() throws IOException {
+        Path file = Files.createTempFile("eventbridge", ".ring");
+        try (SharedMemoryEventBridge bridge = new SharedMemoryEventBridge(file, 1024, SharedMemoryEventBridge.Mode.LOSSLESS);
+             SharedMemoryEventBridge.Receiver receiver = new SharedMemoryEventBridge.Receiver(file)) {
+            bridge.forward(PingEvent.class, CODEC);
+            IEventBus bus = BusBuilder.builder().setPostObserver(bridge).build();
+            bus.post(new PingEvent(1));
+            bus.post(new PingEvent(2));
+            receiver.receive(PingEvent.class, new IEventCodec<PingEvent>() {
+                @Override
+                public void encode(PingEvent event, ByteBuffer out) {
+                    CODEC.encode(event, out);
+                }
+
+                @Override
+                public PingEvent decode(ByteBuffer in) {
+                    PingEvent event = CODEC.decode(in);
+                    if (event.value == 1) throw new IllegalStateException("bad record");
+                    return event;
+                }
+            });
+            IEventBus target = BusBuilder.builder().build();
+            assertThrows(IllegalStateException.class, () -> receiver.poll(target, Integer.MAX_VALUE));
+            assertEquals(1, receiver.poll(target, Integer.MAX_VALUE));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void receiverRejectsBadHeader() throws IOException {
+        Path file = Files.createTempFile("eventbridge", ".ring");
+        try {
+            Files.write(file, new byte[16]);
+            assertThrows(IOException.class, () -> new SharedMemoryEventBridge.Receiver(file));
+            // the receiver must not have grown the file while checking it
+            assertEquals(16, Files.size(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * The test runner's own class path may not be set in java.class.path, so the receiver gets the locations the
+     * classes it needs were loaded from.
+     */
+    private static String classPathOf(Class<?>... types) {
+        return Stream.of(types)
+                .map(type -> {
+                    try {
+                        return Paths.get(type.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+                    } catch (Exception e) {
+                        throw new IllegalStateException("No code source for " + type.getName(), e);
+                    }
+                })
+                .distinct()
+                .collect(Collectors.joining(File.pathSeparator));
+    }
+
+    /**
+     * Receiving side of {@link #losslessToAnotherProcess()}, prints how many events it received and their sum.
+     */
+    public static class ReceivingProcess {
+        public static void main(String[] args) throws Exception {
+            int expected = Integer.parseInt(args[1]);
+            IEventBus bus = BusBuilder.builder().build();
+            AtomicLong count = new AtomicLong();
+            AtomicLong sum = new AtomicLong();
+            bus.addListener(EventPriority.NORMAL, false, PingEvent.class, event -> {
+                count.incrementAndGet();
+                sum.addAndGet(event.value);
+            });
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            try (SharedMemoryEventBridge.Receiver receiver = new SharedMemoryEventBridge.Receiver(Paths.get(args[0]))) {
+                receiver.receive(PingEvent.class, CODEC);
+                while (count.get() < expected && System.nanoTime() < deadline) {
+                    if (receiver.poll(bus, 256) == 0) Thread.yield();
+                }
+            }
+            System.out.println("received " + count.get() + " sum " + sum.get());
+        }
+    }
+}
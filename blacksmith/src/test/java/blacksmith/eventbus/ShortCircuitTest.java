@@ -0,0 +1,75 @@
+package blacksmith.eventbus;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks where dispatch of {@link Event.ShortCircuit} events stops.
+ */
+public class ShortCircuitTest {
+    @Event.ShortCircuit
+    public static class PermissionEvent extends Event {
+    }
+
+    @Event.ShortCircuit(finishPhase = true)
+    public static class PhasedPermissionEvent extends Event {
+    }
+
+    @Test
+    public void shortCircuitStopsAtFirstDecision() {
+        IEventBus bus = BusBuilder.builder().build();
+        List<String> calls = new ArrayList<>();
+        bus.addListener(EventPriority.HIGH, false, PermissionEvent.class, event -> calls.add("undecided"));
+        bus.addListener(EventPriority.HIGH, false, PermissionEvent.class, event -> {
+            calls.add("deny");
+            event.setResult(Event.Result.DENY);
+        });
+        bus.addListener(EventPriority.HIGH, false, PermissionEvent.class, event -> {
+            calls.add("allow");
+            event.setResult(Event.Result.ALLOW);
+        });
+        bus.addListener(EventPriority.LOW, false, PermissionEvent.class, event -> calls.add("late"));
+
+        assertEquals(Event.Result.DENY, bus.postForResult(new PermissionEvent()));
+        assertEquals(Arrays.asList("undecided", "deny"), calls);
+    }
+
+    @Test
+    public void presetResultIsNotADecision() {
+        IEventBus bus = BusBuilder.builder().build();
+        List<String> calls = new ArrayList<>();
+        bus.addListener(EventPriority.HIGH, false, PermissionEvent.class, event -> calls.add("first"));
+        bus.addListener(EventPriority.LOW, false, PermissionEvent.class, event -> {
+            calls.add("second");
+            event.setResult(Event.Result.DENY);
+        });
+
+        PermissionEvent event = new PermissionEvent();
+        event.setResult(Event.Result.ALLOW);
+        assertEquals(Event.Result.DENY, bus.postForResult(event));
+        assertEquals(Arrays.asList("first", "second"), calls);
+    }
+
+    @Test
+    public void finishPhaseRunsTheRestOfThePhase() {
+        IEventBus bus = BusBuilder.builder().build();
+        List<String> calls = new ArrayList<>();
+        bus.addListener(EventPriority.HIGH, false, PhasedPermissionEvent.class, event -> {
+            calls.add("allow");
+            event.setResult(Event.Result.ALLOW);
+        });
+        bus.addListener(EventPriority.HIGH, false, PhasedPermissionEvent.class, event -> {
+            calls.add("deny");
+            event.setResult(Event.Result.DENY);
+        });
+        bus.addListener(EventPriority.LOW, false, PhasedPermissionEvent.class, event -> calls.add("late"));
+
+        assertEquals(Event.Result.DENY, bus.postForResult(new PhasedPermissionEvent()));
+        assertEquals(Arrays.asList("allow", "deny"), calls);
+    }
+}